@@ -1,104 +1,489 @@
 package com.nplusnapps.todolist;
 
-import android.app.IntentService;
+import android.app.Service;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.support.v7.widget.helper.ItemTouchHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.RemoteException;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * The service manages all CRUD operations on the database.
+ * The incoming commands are queued and drained on a worker thread, so a burst of swipes and drags
+ * is applied in one transaction. Each changed task is then reported with its own notification URI
+ * carrying the kind of the change, unless the batch is too large to be patched in place.
+ * Once the queue is empty the lists running out of their gaps are rebalanced, then the changed lists
+ * are copied to their snapshots, see {@link TaskSnapshot}.
  */
-public class BackgroundService extends IntentService {
+public class BackgroundService extends Service {
 
-    private ContentResolver mResolver;
+    /**
+     * The delay to let a burst of commands gather in the queue before draining it.
+     */
+    public static final long DRAIN_DELAY = 50;
 
-    public BackgroundService() {
-        super(BackgroundService.class.getSimpleName());
+    /**
+     * The largest batch whose tasks are listed in its notification. A larger one reloads the whole list.
+     */
+    public static final int MAX_CHANGED_IDS = 100;
 
-        setIntentRedelivery(true);
-    }
+    /**
+     * The time a deleted task is kept as a tombstone, so the delete can be undone.
+     * The older tombstones are purged once the service is idle, at most once per this time,
+     * as the purge scans the whole table.
+     */
+    public static final long TOMBSTONE_LIFETIME = 60 * 1000;
+
+    /**
+     * The number of the times a journaled command is replayed. A command still unapplied after that
+     * is given up on, as it's failed or taken the process down every time.
+     */
+    public static final int MAX_REPLAY_ATTEMPTS = 3;
+
+    private static final CommandQueue sCommandQueue = new CommandQueue();
+
+    private static final String METRIC_BATCH = "service.batch";
+    private static final String METRIC_BATCH_SIZE = "service.batch.size";
+    private static final String METRIC_BATCH_CANCELLED = "service.batch.cancelled";
+    private static final String METRIC_BATCH_FAILED = "service.batch.failed";
+    private static final String METRIC_COMMAND_FAILED = "service.command.failed";
+    private static final String METRIC_COMMAND = "service.command.";
+    private static final String METRIC_JOURNAL_APPEND = "service.journal.append";
+    private static final String METRIC_JOURNAL_DUPLICATE = "service.journal.duplicate";
+    private static final String METRIC_JOURNAL_REPLAYED = "service.journal.replayed";
+    private static final String METRIC_JOURNAL_DROPPED = "service.journal.dropped";
+    private static final String METRIC_SWEEP = "service.sweep";
+    private static final String METRIC_SNAPSHOT = "service.snapshot";
+
+    // The journal is replayed once per process, the queue is empty only right after the process has started.
+    private static boolean sJournalReplayed;
+
+    private static long sLastSweepTime;
+
+    private ContentResolver mResolver;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+    private Runnable mDrainRunnable;
+    // The lists changed since the snapshots have been written, only touched on the worker thread.
+    private final Set<Integer> mChangedLists = new HashSet<>();
+    // The commands received since the last drain, journaled at its start. Only touched on the worker thread.
+    private final List<TaskCommand> mReceivedCommands = new ArrayList<>();
+    // The start ID of the latest command queued, only touched on the worker thread.
+    private int mLastStartId;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
         mResolver = getContentResolver();
+
+        mWorkerThread = new HandlerThread(BackgroundService.class.getSimpleName(),
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+
+        mDrainRunnable = new Runnable() {
+            @Override
+            public void run() {
+                drainCommands();
+            }
+        };
+
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                replayJournal();
+            }
+        });
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
-        String action = intent.getAction();
-        if (action != null) {
-            switch (action) {
-                case MainActivity.ACTION_ADD_TASK:
-                    addTask();
+    public int onStartCommand(Intent intent, int flags, final int startId) {
+        final TaskCommand command = TaskCommand.fromIntent(intent);
+
+        // The start ID is taken on the worker once the command is received, so a drain can't stop the service
+        // with the start ID of a command it hasn't seen.
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (command != null) {
+                    mReceivedCommands.add(command);
+                }
+
+                mLastStartId = startId;
+            }
+        });
+
+        mWorkerHandler.removeCallbacks(mDrainRunnable);
+        mWorkerHandler.postDelayed(mDrainRunnable, DRAIN_DELAY);
+
+        // The intents are redelivered until the batch holding them has been applied, so a command is safe
+        // before it's journaled. The journal ignores those which have made it there already.
+        return START_REDELIVER_INTENT;
+    }
+
+    @Override
+    public void onDestroy() {
+        // The thread quits once the messages posted so far have been handled, a late command is still queued.
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mWorkerThread.quit();
+            }
+        });
+
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Prints the metrics, e.g. adb shell dumpsys activity service BackgroundService.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Queued commands: " + sCommandQueue.getDepth());
+
+        Metrics.dump(writer);
+    }
+
+    /**
+     * Gets the process wide command queue, e.g. to read its depth and batch size.
+     *
+     * @return The command queue
+     */
+    public static CommandQueue getCommandQueue() {
+        return sCommandQueue;
+    }
+
+    /**
+     * Drains the queued commands and applies them in batches. Stops the service once it's idle.
+     */
+    private void drainCommands() {
+        // Reads the start ID first, so the commands queued while draining keep the service alive.
+        int startId = mLastStartId;
+
+        appendJournal(mReceivedCommands);
+        mReceivedCommands.clear();
+
+        while (sCommandQueue.getDepth() > 0) {
+            long startTime = Metrics.startTimer();
+
+            List<TaskCommand> batch = sCommandQueue.drain();
+            long[] journalIds = sCommandQueue.getLastJournalIds();
+
+            for (TaskCommand command : batch) {
+                Metrics.increment(METRIC_COMMAND + command.getAction());
+            }
+
+            if (Log.isLoggable(BackgroundService.class.getSimpleName(), Log.DEBUG)) {
+                Log.d(BackgroundService.class.getSimpleName(), "Applying " + sCommandQueue.getLastBatchSize() +
+                        " commands, " + sCommandQueue.getLastCancelledCount() + " cancelled, " +
+                        sCommandQueue.getDepth() + " queued.");
+            }
+
+            if (!applyCommands(batch, journalIds)) {
+                Metrics.increment(METRIC_BATCH_FAILED);
 
+                // The commands are applied one by one, so the failing one doesn't take the rest with it.
+                // It's left unapplied in the journal and replayed once the process has started again.
+                Set<Long> cancelledIds = new HashSet<>();
+                for (long journalId : journalIds) {
+                    cancelledIds.add(journalId);
+                }
+
+                for (TaskCommand command : batch) {
+                    long[] commandJournalIds = new long[0];
+                    if (command.getJournalId() > 0) {
+                        commandJournalIds = new long[] {command.getJournalId()};
+                        cancelledIds.remove(command.getJournalId());
+                    }
+
+                    if (!applyCommands(Collections.singletonList(command), commandJournalIds)) {
+                        Metrics.increment(METRIC_COMMAND_FAILED);
+                    }
+                }
+
+                // The cancelled commands are replaced by those kept in the batch, or cancel each other out.
+                if (!cancelledIds.isEmpty()) {
+                    long[] ids = new long[cancelledIds.size()];
+                    int i = 0;
+                    for (long journalId : cancelledIds) {
+                        ids[i++] = journalId;
+                    }
+
+                    ArrayList<ContentProviderOperation> markOperations = new ArrayList<>(1);
+                    markOperations.add(markJournal(ids));
+                    applyOperations(markOperations);
+                }
+            }
+
+            Metrics.stopTimer(METRIC_BATCH, startTime);
+            Metrics.record(METRIC_BATCH_SIZE, sCommandQueue.getLastBatchSize());
+            Metrics.record(METRIC_BATCH_CANCELLED, sCommandQueue.getLastCancelledCount());
+        }
+
+        rebalanceLists();
+        writeSnapshots();
+        sweepTombstones();
+
+        // Once the service is stopping no intent can be redelivered, so the applied records aren't needed.
+        if (stopSelfResult(startId)) {
+            try {
+                mResolver.delete(DataProvider.JOURNAL_URI, DataProvider.COLUMN_APPLIED + " = 1", null);
+            } catch (Exception e) {
+                logException(e);
+            }
+        }
+    }
+
+    /**
+     * Applies the commands in a single transaction and notifies the observer about the changed tasks.
+     * The journal records are marked as applied in the same transaction, so a command is never applied
+     * twice or half way.
+     *
+     * @param commands The commands
+     * @param journalIds The journal record IDs of the commands, including those cancelled out by them
+     * @return True if the commands have been applied or there's nothing to apply
+     */
+    private boolean applyCommands(List<TaskCommand> commands, long[] journalIds) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(commands.size() + 1);
+        List<TaskCommand> appliedCommands = new ArrayList<>(commands.size());
+
+        for (TaskCommand command : commands) {
+            int operationCount = operations.size();
+
+            mChangedLists.add(command.getListId());
+
+            switch (command.getAction()) {
+                case MainActivity.ACTION_ADD_TASK:
+                    addTask(operations, command.getListId());
                     break;
                 case MainActivity.ACTION_EDIT_TASK:
-                    editTask(intent.getStringExtra(MainActivity.EXTRA_TASK),
-                            intent.getIntExtra(MainActivity.EXTRA_TASK_ID, 0));
-
+                    editTask(operations, command.getTask(), command.getTaskId());
                     break;
                 case MainActivity.ACTION_DELETE_TASK:
-                    deleteTask(intent.getIntExtra(MainActivity.EXTRA_TASK_ID, 0));
-
+                    deleteTask(operations, command.getTaskId());
+                    break;
+                case MainActivity.ACTION_RESTORE_TASK:
+                    restoreTask(operations, command.getTaskId());
                     break;
                 case MainActivity.ACTION_MOVE_TASK:
-                    moveTask(intent.getIntExtra(MainActivity.EXTRA_TASK_ID, 0),
-                            intent.getIntExtra(MainActivity.EXTRA_TASK_TARGET, 0),
-                            intent.getIntExtra(MainActivity.EXTRA_TASK_DIRECTION, 0));
+                    moveTask(operations, command.getTaskId(), command.getTargetId(), command.getDirection());
                     break;
                 default:
                     break;
             }
+
+            // Each command adds at most one operation, the commands are kept to match the results.
+            if (operations.size() > operationCount) {
+                appliedCommands.add(command);
+            }
+        }
+
+        if (journalIds.length > 0) {
+            operations.add(markJournal(journalIds));
+        }
+
+        if (operations.isEmpty()) {
+            return true;
+        }
+
+        ContentProviderResult[] results = applyOperations(operations);
+        if (results != null) {
+            notifyChanges(appliedCommands, results);
+        }
+
+        return results != null;
+    }
+
+    /**
+     * Appends the commands to the journal in a single transaction and queues them. A redelivered command
+     * which has been journaled already is dropped, as it's been applied or is going to be replayed.
+     *
+     * @param commands The commands in the order they've been received
+     */
+    private void appendJournal(List<TaskCommand> commands) {
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        long startTime = Metrics.startTimer();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(commands.size());
+        for (TaskCommand command : commands) {
+            operations.add(ContentProviderOperation.newInsert(DataProvider.JOURNAL_URI).
+                    withValue(DataProvider.COLUMN_COMMAND_ID, command.getCommandId()).
+                    withValue(DataProvider.COLUMN_ACTION, command.getAction()).
+                    withValue(DataProvider.COLUMN_LIST_ID, command.getListId()).
+                    withValue(DataProvider.COLUMN_TASK_ID, command.getTaskId()).
+                    withValue(DataProvider.COLUMN_TARGET, command.getTargetId()).
+                    withValue(DataProvider.COLUMN_DIRECTION, command.getDirection()).
+                    withValue(DataProvider.COLUMN_TASK, command.getTask()).build());
+        }
+
+        ContentProviderResult[] results = null;
+        try {
+            results = mResolver.applyBatch(DataProvider.AUTHORITY, operations);
+        } catch (Exception e) {
+            logException(e);
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            TaskCommand command = commands.get(i);
+
+            if (results == null) {
+                // The command is still applied, it just can't be replayed.
+                sCommandQueue.offer(command);
+            } else if (DataProvider.JOURNAL_URI.equals(results[i].uri)) {
+                Metrics.increment(METRIC_JOURNAL_DUPLICATE);
+            } else {
+                sCommandQueue.offer(command.withJournalId(ContentUris.parseId(results[i].uri)));
+            }
         }
+
+        Metrics.stopTimer(METRIC_JOURNAL_APPEND, startTime);
+        Metrics.record(METRIC_JOURNAL_APPEND + ".size", commands.size());
     }
 
     /**
-     * Adds a new task.
+     * Queues the journaled commands which haven't been applied before the process has died. Every replay
+     * is counted before the commands are applied, so a command which takes the process down with it
+     * is given up on after {@link #MAX_REPLAY_ATTEMPTS} replays instead of crashing every start.
      */
-    private void addTask() {
-        int previousId = 0, addedId = 0;
+    private void replayJournal() {
+        if (sJournalReplayed) {
+            return;
+        }
+        sJournalReplayed = true;
+
+        List<TaskCommand> commands = new ArrayList<>();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        List<Long> droppedIds = new ArrayList<>();
 
-        Cursor cursor = mResolver.query(
-                DataProvider.CONTENT_URI, null, DataProvider.COLUMN_NEXT + " = " + 0, null, null);
+        Cursor cursor = null;
         try {
-            if (cursor.moveToLast()) {
-                previousId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_ID));
+            cursor = mResolver.query(DataProvider.JOURNAL_URI, new String[] {DataProvider.COLUMN_ID,
+                    DataProvider.COLUMN_COMMAND_ID, DataProvider.COLUMN_ACTION, DataProvider.COLUMN_TASK_ID,
+                    DataProvider.COLUMN_TARGET, DataProvider.COLUMN_DIRECTION, DataProvider.COLUMN_TASK,
+                    DataProvider.COLUMN_LIST_ID, DataProvider.COLUMN_ATTEMPTS}, DataProvider.COLUMN_APPLIED +
+                    " = 0", null, null);
+
+            while (cursor.moveToNext()) {
+                long journalId = cursor.getLong(0);
+                int attempts = cursor.getInt(8);
+
+                if (attempts >= MAX_REPLAY_ATTEMPTS) {
+                    Log.w(BackgroundService.class.getSimpleName(), "Dropping the command " + cursor.getString(1) +
+                            " (" + cursor.getString(2) + ") after " + attempts + " replays.");
+                    droppedIds.add(journalId);
+                    continue;
+                }
+
+                // The commands journaled before the lists belong to the default one.
+                int listId = cursor.isNull(7) ? DataProvider.DEFAULT_LIST_ID : cursor.getInt(7);
+
+                commands.add(new TaskCommand(cursor.getString(2), listId, cursor.getInt(3), cursor.getInt(4),
+                        cursor.getInt(5), cursor.getString(6), cursor.getString(1), journalId));
+                operations.add(ContentProviderOperation.newUpdate(DataProvider.JOURNAL_URI).
+                        withValue(DataProvider.COLUMN_ATTEMPTS, attempts + 1).
+                        withSelection(DataProvider.COLUMN_ID + " = " + journalId, null).build());
             }
         } catch (Exception e) {
             logException(e);
         } finally {
-            closeCursor(cursor);
+            if (cursor != null) {
+                cursor.close();
+            }
         }
 
-        ContentValues values = new ContentValues();
-        values.put(DataProvider.COLUMN_PREVIOUS, previousId);
-        values.put(DataProvider.COLUMN_NEXT, 0);
+        // The dropped records are marked as applied, so they're cleaned up with the rest.
+        if (!droppedIds.isEmpty()) {
+            long[] ids = new long[droppedIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = droppedIds.get(i);
+            }
+            operations.add(markJournal(ids));
 
-        String lastSegment = mResolver.insert(
-                DataProvider.CONTENT_URI, values).getLastPathSegment();
-        if (lastSegment != null) {
-            addedId = Integer.parseInt(lastSegment);
+            Metrics.add(METRIC_JOURNAL_DROPPED, ids.length);
         }
 
-        if (addedId != 0) {
-            updateTaskNextId(addedId, previousId);
+        if (!operations.isEmpty()) {
+            applyOperations(operations);
+        }
+
+        if (!commands.isEmpty()) {
+            Log.i(BackgroundService.class.getSimpleName(), "Replaying " + commands.size() + " commands.");
+            Metrics.add(METRIC_JOURNAL_REPLAYED, commands.size());
+
+            for (TaskCommand command : commands) {
+                sCommandQueue.offer(command);
+            }
+
+            mWorkerHandler.removeCallbacks(mDrainRunnable);
+            mWorkerHandler.postDelayed(mDrainRunnable, DRAIN_DELAY);
+        }
+    }
+
+    /**
+     * Builds the operation marking the journal records as applied. The records of a failed command
+     * may lie between them, so they're marked by their IDs rather than up to the last one.
+     *
+     * @param journalIds The IDs of the records to mark
+     * @return The operation
+     */
+    private ContentProviderOperation markJournal(long[] journalIds) {
+        StringBuilder selection = new StringBuilder(DataProvider.COLUMN_ID).append(" IN (");
+        for (int i = 0; i < journalIds.length; i++) {
+            selection.append(i > 0 ? ", " : "").append(journalIds[i]);
         }
 
-        notifyChange();
+        return ContentProviderOperation.newUpdate(DataProvider.JOURNAL_URI).
+                withValue(DataProvider.COLUMN_APPLIED, 1).
+                withSelection(selection.append(')').toString(), null).build();
+    }
+
+    /**
+     * Adds a new task after the tail of the list.
+     *
+     * @param operations The operations to append to
+     * @param listId The list ID
+     */
+    private void addTask(ArrayList<ContentProviderOperation> operations, int listId) {
+        operations.add(ContentProviderOperation.newInsert(DataProvider.getListTasksUri(listId)).build());
     }
 
     /**
      * Edits the existing task with the provided ID.
      *
+     * @param operations The operations to append to
      * @param task The edited task
      * @param id The task ID
      */
-    private void editTask(String task, int id) {
+    private void editTask(ArrayList<ContentProviderOperation> operations, String task, int id) {
         if (id != 0) {
             ContentValues values = new ContentValues();
 
@@ -108,184 +493,222 @@ public class BackgroundService extends IntentService {
                 values.putNull(DataProvider.COLUMN_TASK);
             }
 
-            mResolver.update(
-                    DataProvider.CONTENT_URI, values, DataProvider.COLUMN_ID + " = " + id, null);
+            operations.add(ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(DataProvider.CONTENT_URI, id)).withValues(values).build());
         }
     }
 
     /**
-     * Deletes the task with the provided ID.
+     * Deletes the task with the provided ID, i.e. turns it into a tombstone by setting its deletion time.
      *
+     * @param operations The operations to append to
      * @param id The task ID
      */
-    private void deleteTask(int id) {
+    private void deleteTask(ArrayList<ContentProviderOperation> operations, int id) {
         if (id != 0) {
-            int previousId = 0, nextId = 0;
+            operations.add(ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(DataProvider.CONTENT_URI, id)).
+                    withValue(DataProvider.COLUMN_DELETED, System.currentTimeMillis()).build());
+        }
+    }
 
-            Cursor cursor = mResolver.query(
-                    DataProvider.CONTENT_URI, null, DataProvider.COLUMN_ID + " = " + id, null, null);
-            try {
-                if (cursor.moveToFirst()) {
-                    previousId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_PREVIOUS));
-                    nextId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_NEXT));
-                }
-            } catch (Exception e) {
-                logException(e);
-            } finally {
-                closeCursor(cursor);
-            }
+    /**
+     * Restores the deleted task with the provided ID, unless its tombstone has been purged already.
+     *
+     * @param operations The operations to append to
+     * @param id The task ID
+     */
+    private void restoreTask(ArrayList<ContentProviderOperation> operations, int id) {
+        if (id != 0) {
+            operations.add(ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(DataProvider.CONTENT_URI, id)).
+                    withValue(DataProvider.COLUMN_DELETED, 0).build());
+        }
+    }
 
-            int rowsDeleted = mResolver.delete(
-                    DataProvider.CONTENT_URI, DataProvider.COLUMN_ID + " = " + id, null);
+    /**
+     * Purges the tombstones which can't be restored anymore in a single statement.
+     */
+    private void sweepTombstones() {
+        long now = System.currentTimeMillis();
+        if (now - sLastSweepTime < TOMBSTONE_LIFETIME) {
+            return;
+        }
+        sLastSweepTime = now;
 
-            if (rowsDeleted > 0) {
-                updateTaskNextId(nextId, previousId);
-                updateTaskPreviousId(previousId, nextId);
-            }
+        long startTime = Metrics.startTimer();
 
-            notifyChange();
+        try {
+            int rowsDeleted = mResolver.delete(DataProvider.DELETED_URI, DataProvider.COLUMN_DELETED + " < " +
+                    (now - TOMBSTONE_LIFETIME), null);
+            Metrics.add(METRIC_SWEEP + ".rows", rowsDeleted);
+        } catch (Exception e) {
+            logException(e);
         }
+
+        Metrics.stopTimer(METRIC_SWEEP, startTime);
     }
 
     /**
-     * Moves the task to the new logical position in the linked data set.
+     * Moves the task to the new position next to the target task.
      *
+     * @param operations The operations to append to
      * @param selectedId The selected task ID
      * @param targetId The target task ID
      * @param moveDirection The direction in which to move the task
-     *                      <code>ItemTouchHelper.UP</code> or <code>ItemTouchHelper.DOWN</code>
+     *                      {@link DataProvider#DIRECTION_UP} or {@link DataProvider#DIRECTION_DOWN}
      */
-    private void moveTask(int selectedId, int targetId, int moveDirection) {
-        if (selectedId != 0) {
-            int previousId = 0, nextId = 0, targetPreviousId = 0, targetNextId = 0;
+    private void moveTask(ArrayList<ContentProviderOperation> operations,
+                          int selectedId, int targetId, int moveDirection) {
+        if (selectedId != 0 && targetId != 0) {
+            operations.add(ContentProviderOperation.newUpdate(DataProvider.getMoveUri(selectedId)).
+                    withValue(DataProvider.MOVE_TARGET, targetId).
+                    withValue(DataProvider.MOVE_DIRECTION, moveDirection).build());
+        }
+    }
 
-            Cursor cursor = mResolver.query(
-                    DataProvider.CONTENT_URI, null, DataProvider.COLUMN_ID +
-                            " IN (" + selectedId + ", " + targetId + ")", null, null);
-            try {
-                while (cursor.moveToNext()) {
-                    int currentId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_ID));
-
-                    if (currentId == selectedId) {
-                        previousId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_PREVIOUS));
-                        nextId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_NEXT));
-                    } else if (currentId == targetId) {
-                        targetPreviousId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_PREVIOUS));
-                        targetNextId = cursor.getInt(cursor.getColumnIndex(DataProvider.COLUMN_NEXT));
-                    }
-                }
-            } catch (Exception e) {
-                logException(e);
-            } finally {
-                closeCursor(cursor);
-            }
+    /**
+     * Applies the provided operations in a single transaction.
+     *
+     * @param operations The operations
+     * @return The results, or null if the operations haven't been applied
+     */
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations) {
+        try {
+            return mResolver.applyBatch(DataProvider.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            logException(e);
+        }
 
-            ContentValues values = new ContentValues();
+        return null;
+    }
+
+    /**
+     * Notifies the observer about the changed tasks with a single notification listing their IDs,
+     * so the list is patched with a single query. A large batch is reported as a change of the whole list.
+     *
+     * @param commands The applied commands
+     * @param results The results of the matching operations
+     */
+    private void notifyChanges(List<TaskCommand> commands, ContentProviderResult[] results) {
+        if (commands.size() > MAX_CHANGED_IDS) {
+            mResolver.notifyChange(DataProvider.CONTENT_URI, null);
+            return;
+        }
 
-            switch (moveDirection) {
-                case ItemTouchHelper.UP:
-                    values.put(DataProvider.COLUMN_PREVIOUS, targetId);
-                    values.put(DataProvider.COLUMN_NEXT, targetNextId);
+        // The last command of a task wins, e.g. a restore after a delete reads the task back.
+        Set<Integer> changedIds = new LinkedHashSet<>(), deletedIds = new LinkedHashSet<>();
+        for (int i = 0; i < commands.size(); i++) {
+            TaskCommand command = commands.get(i);
+
+            switch (command.getAction()) {
+                case MainActivity.ACTION_ADD_TASK:
+                    if (results[i].uri != null) {
+                        changedIds.add((int) ContentUris.parseId(results[i].uri));
+                    }
                     break;
-                case ItemTouchHelper.DOWN:
-                    values.put(DataProvider.COLUMN_NEXT, targetId);
-                    values.put(DataProvider.COLUMN_PREVIOUS, targetPreviousId);
+                case MainActivity.ACTION_EDIT_TASK:
+                case MainActivity.ACTION_RESTORE_TASK:
+                case MainActivity.ACTION_MOVE_TASK:
+                    deletedIds.remove(command.getTaskId());
+                    changedIds.add(command.getTaskId());
+                    break;
+                case MainActivity.ACTION_DELETE_TASK:
+                    changedIds.remove(command.getTaskId());
+                    deletedIds.add(command.getTaskId());
                     break;
                 default:
                     break;
             }
+        }
 
-            int rowsUpdated = mResolver.update(
-                    DataProvider.CONTENT_URI, values, DataProvider.COLUMN_ID + " = " + selectedId, null);
-
-            if (rowsUpdated > 0) {
-                values.clear();
-
-                switch (moveDirection) {
-                    case ItemTouchHelper.UP:
-                        if (targetPreviousId == selectedId) {
-                            values.put(DataProvider.COLUMN_PREVIOUS, previousId);
-                        }
-                        values.put(DataProvider.COLUMN_NEXT, selectedId);
-
-                        mResolver.update(DataProvider.CONTENT_URI,
-                                values, DataProvider.COLUMN_ID + " = " + targetId, null);
-
-                        updateTaskPreviousId(selectedId, targetNextId);
-
-                        break;
-                    case ItemTouchHelper.DOWN:
-                        if (targetNextId == selectedId) {
-                            values.put(DataProvider.COLUMN_NEXT, nextId);
-                        }
-                        values.put(DataProvider.COLUMN_PREVIOUS, selectedId);
-
-                        mResolver.update(DataProvider.CONTENT_URI,
-                                values, DataProvider.COLUMN_ID + " = " + targetId, null);
-
-                        updateTaskNextId(selectedId, targetPreviousId);
-
-                        break;
-                    default:
-                        break;
-                }
-
-                updateTaskNextId(nextId, previousId);
-                updateTaskPreviousId(previousId, nextId);
-            }
-
-            notifyChange();
+        if (!changedIds.isEmpty() || !deletedIds.isEmpty()) {
+            mResolver.notifyChange(DataProvider.getChangeUri(changedIds, deletedIds), null);
         }
     }
 
     /**
-     * Updates the previous ID column value of the task with the provided ID.
-     *
-     * @param previousId The previous ID value
-     * @param taskId The task ID
+     * Rebalances the lists whose gaps the moves have been running out, while no move is waiting.
      */
-    private void updateTaskPreviousId(int previousId, int taskId) {
-        if (taskId != 0) {
-            ContentValues values = new ContentValues();
-            values.put(DataProvider.COLUMN_PREVIOUS, previousId);
-
-            mResolver.update(DataProvider.CONTENT_URI,
-                    values, DataProvider.COLUMN_ID + " = " + taskId, null);
+    private void rebalanceLists() {
+        try {
+            mResolver.call(DataProvider.CONTENT_URI, DataProvider.METHOD_REBALANCE, null, null);
+        } catch (Exception e) {
+            logException(e);
         }
     }
 
     /**
-     * Updates the next ID column value of the task with the provided ID.
-     *
-     * @param nextId The next ID value
-     * @param taskId The task ID
+     * Copies the changed lists to their snapshots, so they're shown right away on the next launch.
      */
-    private void updateTaskNextId(int nextId, int taskId) {
-        if (taskId != 0) {
-            ContentValues values = new ContentValues();
-            values.put(DataProvider.COLUMN_NEXT, nextId);
+    private void writeSnapshots() {
+        for (int listId : mChangedLists) {
+            long startTime = Metrics.startTimer();
 
-            mResolver.update(DataProvider.CONTENT_URI,
-                    values, DataProvider.COLUMN_ID + " = " + taskId, null);
+            try {
+                writeSnapshot(listId);
+            } catch (Exception e) {
+                logException(e);
+            }
+
+            Metrics.stopTimer(METRIC_SNAPSHOT, startTime);
         }
-    }
 
-    /**
-     * Notifies the observer the data has been changed.
-     */
-    private void notifyChange() {
-        mResolver.notifyChange(DataProvider.CONTENT_URI, null);
+        mChangedLists.clear();
     }
 
     /**
-     * Safely closes the provided cursor.
+     * Copies the list to its snapshot. The version is read before the tasks, so the tasks are never older
+     * than the version they're saved with, and a write in between only makes the copy look stale.
+     * The long lists are paged rather than copied, their old copies are deleted.
      *
-     * @param cursor The cursor to close
+     * @param listId The list ID
+     * @throws IOException If the snapshot can't be written
      */
-    private void closeCursor(Cursor cursor) {
-        if (cursor != null) {
-            cursor.close();
+    private void writeSnapshot(int listId) throws IOException {
+        File file = TaskSnapshot.getFile(getCacheDir(), listId);
+
+        long version = -1;
+        int taskCount = 0;
+
+        Cursor cursor = mResolver.query(DataProvider.getListUri(listId), new String[] {
+                DataProvider.COLUMN_VERSION, DataProvider.COLUMN_TASK_COUNT}, null, null, null);
+        try {
+            if (cursor != null && cursor.moveToFirst()) {
+                version = cursor.getLong(0);
+                taskCount = cursor.getInt(1);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (version == -1 || taskCount > TaskSnapshot.MAX_TASKS) {
+            file.delete();
+            return;
         }
+
+        List<Task> tasks = new ArrayList<>(taskCount);
+
+        cursor = mResolver.query(DataProvider.getOrderedUri(listId), new String[] {
+                DataProvider.COLUMN_ID, DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK}, null, null, null);
+        try {
+            while (cursor != null && cursor.moveToNext() && tasks.size() <= TaskSnapshot.MAX_TASKS) {
+                tasks.add(new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2)));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (tasks.size() > TaskSnapshot.MAX_TASKS) {
+            file.delete();
+            return;
+        }
+
+        TaskSnapshot.write(file, listId, version, tasks);
     }
 
     /**
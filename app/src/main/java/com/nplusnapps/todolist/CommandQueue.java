@@ -0,0 +1,164 @@
+package com.nplusnapps.todolist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The thread safe queue collects the task commands until the service drains them as a single batch.
+ * Redundant commands are cancelled out while draining: only the latest edit of a task is kept,
+ * and a delete undone in the same batch is dropped together with its restore. The edits and moves
+ * of a deleted task are kept, as the delete can be undone later.
+ */
+public class CommandQueue {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final List<TaskCommand> mCommands = new ArrayList<>();
+    private int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int mLastBatchSize, mLastCancelledCount;
+    private long[] mLastJournalIds = new long[0];
+
+    /**
+     * Appends the command to the queue.
+     *
+     * @param command The command
+     */
+    public synchronized void offer(TaskCommand command) {
+        mCommands.add(command);
+    }
+
+    /**
+     * Takes up to the maximum batch size of the queued commands and cancels out the redundant ones.
+     *
+     * @return The commands to apply, in the order they have been queued
+     */
+    public synchronized List<TaskCommand> drain() {
+        int count = Math.min(mCommands.size(), mMaxBatchSize);
+
+        List<TaskCommand> drained = new ArrayList<>(mCommands.subList(0, count));
+        mCommands.subList(0, count).clear();
+
+        List<Long> journalIds = new ArrayList<>(count);
+
+        List<TaskCommand> batch = new ArrayList<>(count);
+        for (TaskCommand command : drained) {
+            if (command.getJournalId() > 0) {
+                journalIds.add(command.getJournalId());
+            }
+
+            switch (command.getAction()) {
+                case MainActivity.ACTION_EDIT_TASK:
+                    // The latest text replaces the earlier edits.
+                    removeCommands(batch, MainActivity.ACTION_EDIT_TASK, command.getTaskId());
+
+                    break;
+                case MainActivity.ACTION_MOVE_TASK:
+                    // The latest move replaces the earlier one, unless a move has been relative to it since.
+                    int index = lastIndexOf(batch, MainActivity.ACTION_MOVE_TASK, command.getTaskId());
+                    if (index != -1 && !isTargeted(batch, index + 1, command.getTaskId())) {
+                        batch.remove(index);
+                    }
+
+                    break;
+                case MainActivity.ACTION_RESTORE_TASK:
+                    int deleteIndex = lastIndexOf(batch, MainActivity.ACTION_DELETE_TASK, command.getTaskId());
+                    if (deleteIndex != -1) {
+                        batch.remove(deleteIndex);
+                        continue;
+                    }
+
+                    break;
+                default:
+                    break;
+            }
+
+            batch.add(command);
+        }
+
+        mLastBatchSize = batch.size();
+        mLastCancelledCount = count - batch.size();
+
+        mLastJournalIds = new long[journalIds.size()];
+        for (int i = 0; i < mLastJournalIds.length; i++) {
+            mLastJournalIds[i] = journalIds.get(i);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Gets the number of commands waiting to be drained.
+     *
+     * @return The queue depth
+     */
+    public synchronized int getDepth() {
+        return mCommands.size();
+    }
+
+    /**
+     * Gets the number of commands applied by the last drain.
+     *
+     * @return The batch size
+     */
+    public synchronized int getLastBatchSize() {
+        return mLastBatchSize;
+    }
+
+    /**
+     * Gets the number of redundant commands cancelled out by the last drain.
+     *
+     * @return The cancelled command count
+     */
+    public synchronized int getLastCancelledCount() {
+        return mLastCancelledCount;
+    }
+
+    /**
+     * Gets the journal record IDs of the commands taken by the last drain, including the cancelled ones.
+     *
+     * @return The journal record IDs, empty if none of the commands has been journaled
+     */
+    public synchronized long[] getLastJournalIds() {
+        return mLastJournalIds;
+    }
+
+    /**
+     * Sets the maximum number of commands taken by a single drain.
+     *
+     * @param maxBatchSize The maximum batch size
+     */
+    public synchronized void setMaxBatchSize(int maxBatchSize) {
+        mMaxBatchSize = Math.max(maxBatchSize, 1);
+    }
+
+    private static void removeCommands(List<TaskCommand> batch, String action, int taskId) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            TaskCommand command = batch.get(i);
+            if (command.is(action) && command.getTaskId() == taskId) {
+                batch.remove(i);
+            }
+        }
+    }
+
+    private static int lastIndexOf(List<TaskCommand> batch, String action, int taskId) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            TaskCommand command = batch.get(i);
+            if (command.is(action) && command.getTaskId() == taskId) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isTargeted(List<TaskCommand> batch, int fromIndex, int taskId) {
+        for (int i = fromIndex; i < batch.size(); i++) {
+            TaskCommand command = batch.get(i);
+            if (command.is(MainActivity.ACTION_MOVE_TASK) && command.getTargetId() == taskId) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -1,48 +1,265 @@
 package com.nplusnapps.todolist;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * The simple content provider for CRUD operations.
  * There's no auto notification of the data changes in this particular implementation.
+ * The tasks belong to the named lists, every list is ordered by its own gapped position keys, so adding,
+ * moving or deleting a task writes a single row. The list row holds the bounds of the list's keys and its
+ * task count, kept up to date by the triggers, so a task is appended and the tasks are counted without
+ * reading the other tasks. The ordered lists and the keys are cached in memory, see {@link TaskCache}.
+ * A task is deleted by setting its deletion time, such a tombstone is hidden from all the reads
+ * until it's restored or purged, see {@link #DELETED_URI}.
  */
 public class DataProvider extends ContentProvider {
 
+    public static final String AUTHORITY = "com.nplusnapps.todolist.dataprovider";
+
     public static final Uri CONTENT_URI =
-            Uri.parse("content://com.nplusnapps.todolist.dataprovider/tasks");
+            Uri.parse("content://" + AUTHORITY + "/tasks");
+    /**
+     * The ordered tasks of the default list.
+     */
+    public static final Uri ORDERED_URI =
+            Uri.parse("content://" + AUTHORITY + "/tasks/ordered");
+
+    /**
+     * The lists, the tasks of a list are at <code>lists/#/tasks</code> and in the list order
+     * at <code>lists/#/tasks/ordered</code>. The list counts, head, tail and version are read only.
+     * The default list holds the tasks added with no list, it can't be deleted.
+     */
+    public static final Uri LISTS_URI =
+            Uri.parse("content://" + AUTHORITY + "/lists");
+
+    public static final String PATH_TASKS = "tasks";
+    public static final String PATH_ORDERED = "ordered";
+
+    public static final String COLUMN_NAME = TaskSchema.COLUMN_NAME;
+    public static final String COLUMN_HEAD = TaskSchema.COLUMN_HEAD;
+    public static final String COLUMN_TAIL = TaskSchema.COLUMN_TAIL;
+    public static final String COLUMN_TASK_COUNT = TaskSchema.COLUMN_TASK_COUNT;
+    public static final String COLUMN_VERSION = TaskSchema.COLUMN_VERSION;
+
+    public static final int DEFAULT_LIST_ID = TaskSchema.DEFAULT_LIST_ID;
+
+    public static final String COLUMN_ID = TaskSchema.COLUMN_ID;
+    public static final String COLUMN_POSITION = TaskSchema.COLUMN_POSITION;
+    public static final String COLUMN_TASK = TaskSchema.COLUMN_TASK;
+    public static final String COLUMN_DELETED = TaskSchema.COLUMN_DELETED;
+    public static final String COLUMN_LIST_ID = TaskSchema.COLUMN_LIST_ID;
+    public static final String ORDER_DEFAULT = TaskSchema.ORDER_LIST;
+
+    /**
+     * The query parameters to read a page of the ordered list: the maximum row count,
+     * then either the row offset or the key of the last row of the previous page.
+     */
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_BEFORE = "before";
+
+    /**
+     * The query parameter of the search, export and import URIs narrowing them down to a list.
+     * The search looks through all the lists without it, the export and import use the default list.
+     */
+    public static final String PARAM_LIST = "list";
+
+    /**
+     * The query parameters of the notification URIs listing the IDs of the tasks changed by a batch:
+     * those added, edited, moved or restored, and those deleted.
+     */
+    public static final String PARAM_CHANGED = "changed";
+    public static final String PARAM_DELETED = "deleted";
+
+    public static final String PATH_MOVE = "move";
+    public static final String MOVE_TARGET = "target";
+    public static final String MOVE_DIRECTION = "direction";
+
+    /**
+     * The moved task goes right above the target one, i.e. takes a greater key. The values of the directions
+     * are those the journal has always stored.
+     */
+    public static final int DIRECTION_UP = 1;
+    /**
+     * The moved task goes right below the target one, i.e. takes a smaller key.
+     */
+    public static final int DIRECTION_DOWN = 2;
+
+    /**
+     * The gap left between the adjacent order keys, see {@link TaskSchema#POSITION_GAP}.
+     */
+    public static final long POSITION_GAP = TaskSchema.POSITION_GAP;
 
-    public static final String COLUMN_ID = "_id";
-    public static final String COLUMN_PREVIOUS = "previous";
-    public static final String COLUMN_NEXT = "next";
-    public static final String COLUMN_TASK = "task";
-    public static final String ORDER_DEFAULT = COLUMN_ID + " DESC";
+    /**
+     * The gap below which the list is rebalanced in the background, see {@link #METHOD_REBALANCE}.
+     * The same gap can still be halved 16 times before a move has to rebalance the list itself.
+     */
+    public static final long REBALANCE_GAP = 1L << 16;
 
     private static final int MATCH_TASKS = 1;
     private static final int MATCH_TASK = 2;
+    private static final int MATCH_TASK_MOVE = 3;
+    private static final int MATCH_TASKS_ORDERED = 4;
+    private static final int MATCH_METRICS = 5;
+    private static final int MATCH_JOURNAL = 6;
+    private static final int MATCH_TASKS_SEARCH = 7;
+    private static final int MATCH_TASKS_EXPORT = 8;
+    private static final int MATCH_TASKS_IMPORT = 9;
+    private static final int MATCH_TASKS_DELETED = 10;
+    private static final int MATCH_LISTS = 11;
+    private static final int MATCH_LIST = 12;
+    private static final int MATCH_LIST_TASKS = 13;
+    private static final int MATCH_LIST_TASKS_ORDERED = 14;
+
+    /**
+     * The tombstones, i.e. the tasks with the deletion time set. Deleting them purges them for good,
+     * the selection can narrow them down, e.g. by the deletion time.
+     * A tombstone is restored by updating its deletion time to 0 through the task URI.
+     */
+    public static final Uri DELETED_URI =
+            Uri.parse("content://" + AUTHORITY + "/tasks/deleted");
+
+    /**
+     * The tasks matching the words of the query parameter, best matches first.
+     * Every word matches the words starting with it, e.g. "mil" matches "milk".
+     */
+    public static final Uri SEARCH_URI =
+            Uri.parse("content://" + AUTHORITY + "/tasks/search");
+
+    public static final String PARAM_QUERY = "q";
+    public static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    /**
+     * The whole list streamed as JSON lines, a <code>{"task": "..."}</code> object per task in the list order.
+     * The export URI is opened for reading and the import URI for writing, the imported tasks are appended
+     * below the list keeping their order. Both are streamed in chunks, so the memory use doesn't depend
+     * on the list size.
+     */
+    public static final Uri EXPORT_URI =
+            Uri.parse("content://" + AUTHORITY + "/tasks/export");
+    public static final Uri IMPORT_URI =
+            Uri.parse("content://" + AUTHORITY + "/tasks/import");
+
+    public static final String MIME_TYPE_TASK_LINES = "application/x-ndjson";
+    public static final int TRANSFER_CHUNK_SIZE = 500;
+
+    /**
+     * The journal of the task commands. A command is appended before it's applied and marked once
+     * it has been folded into the tasks, so the commands pending when the process dies can be replayed.
+     */
+    public static final Uri JOURNAL_URI =
+            Uri.parse("content://" + AUTHORITY + "/journal");
+
+    public static final String COLUMN_COMMAND_ID = TaskSchema.COLUMN_COMMAND_ID;
+    public static final String COLUMN_ACTION = TaskSchema.COLUMN_ACTION;
+    public static final String COLUMN_TASK_ID = TaskSchema.COLUMN_TASK_ID;
+    public static final String COLUMN_TARGET = TaskSchema.COLUMN_TARGET;
+    public static final String COLUMN_DIRECTION = TaskSchema.COLUMN_DIRECTION;
+    public static final String COLUMN_APPLIED = TaskSchema.COLUMN_APPLIED;
+    public static final String COLUMN_ATTEMPTS = TaskSchema.COLUMN_ATTEMPTS;
+
+    public static final Uri METRICS_URI =
+            Uri.parse("content://" + AUTHORITY + "/metrics");
+
+    private static final String METRIC_QUERY = "provider.query";
+    private static final String METRIC_INSERT = "provider.insert";
+    private static final String METRIC_BULK_INSERT = "provider.bulk_insert";
+    private static final String METRIC_APPLY_BATCH = "provider.apply_batch";
+    private static final String METRIC_COMMIT = "provider.commit";
+    private static final String METRIC_UPDATE = "provider.update";
+    private static final String METRIC_MOVE = "provider.move";
+    private static final String METRIC_DELETE = "provider.delete";
+    private static final String METRIC_REBALANCE = "provider.rebalance";
+    private static final String METRIC_REBALANCE_SCHEDULED = "provider.rebalance.scheduled";
+    private static final String METRIC_REBALANCE_MOVE = "provider.rebalance.move";
+    private static final String METRIC_SEARCH = "provider.search";
+    private static final String METRIC_EXPORT = "provider.export";
+    private static final String METRIC_IMPORT = "provider.import";
+    private static final String METRIC_RESTORE = "provider.restore";
+    private static final String METRIC_PURGE = "provider.purge";
+
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+    public static final String STAT_HITS = "hits";
+    public static final String STAT_MISSES = "misses";
+    public static final String STAT_EVICTIONS = "evictions";
+    public static final String STAT_SIZE = "size";
+
+    /**
+     * Rebalances the lists whose gaps have been running out. The service calls it once it's idle,
+     * so the keys are spread off the write path of the moves. The rebalanced lists are reloaded.
+     */
+    public static final String METHOD_REBALANCE = "rebalance";
 
     private ContentResolver mResolver;
     private DatabaseHelper mHelper;
-    private SQLiteDatabase mDatabase;
+    private final Map<Integer, TaskCache> mCaches = new HashMap<>();
+    // The lists to rebalance once the service is idle.
+    private final Set<Integer> mRebalanceLists = new HashSet<>();
 
     private static final UriMatcher sMatcher;
 
     static {
         sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
-        sMatcher.addURI("com.nplusnapps.todolist.dataprovider", "tasks", MATCH_TASKS);
-        sMatcher.addURI("com.nplusnapps.todolist.dataprovider", "tasks/#", MATCH_TASK);
+        sMatcher.addURI(AUTHORITY, "tasks", MATCH_TASKS);
+        sMatcher.addURI(AUTHORITY, "tasks/ordered", MATCH_TASKS_ORDERED);
+        sMatcher.addURI(AUTHORITY, "tasks/search", MATCH_TASKS_SEARCH);
+        sMatcher.addURI(AUTHORITY, "tasks/export", MATCH_TASKS_EXPORT);
+        sMatcher.addURI(AUTHORITY, "tasks/import", MATCH_TASKS_IMPORT);
+        sMatcher.addURI(AUTHORITY, "tasks/deleted", MATCH_TASKS_DELETED);
+        sMatcher.addURI(AUTHORITY, "tasks/#", MATCH_TASK);
+        sMatcher.addURI(AUTHORITY, "tasks/#/" + PATH_MOVE, MATCH_TASK_MOVE);
+        sMatcher.addURI(AUTHORITY, "metrics", MATCH_METRICS);
+        sMatcher.addURI(AUTHORITY, "journal", MATCH_JOURNAL);
+        sMatcher.addURI(AUTHORITY, "lists", MATCH_LISTS);
+        sMatcher.addURI(AUTHORITY, "lists/#", MATCH_LIST);
+        sMatcher.addURI(AUTHORITY, "lists/#/" + PATH_TASKS, MATCH_LIST_TASKS);
+        sMatcher.addURI(AUTHORITY, "lists/#/" + PATH_TASKS + "/" + PATH_ORDERED, MATCH_LIST_TASKS_ORDERED);
     }
 
     @Override
@@ -61,9 +278,25 @@ public class DataProvider extends ContentProvider {
     public String getType(Uri uri) {
         switch (sMatcher.match(uri)) {
             case MATCH_TASKS:
+            case MATCH_TASKS_ORDERED:
+            case MATCH_TASKS_SEARCH:
+            case MATCH_TASKS_DELETED:
+            case MATCH_LIST_TASKS:
+            case MATCH_LIST_TASKS_ORDERED:
                 return "vnd.android.cursor.dir/vnd.com.nplusnapps.dataprovider.tasks";
+            case MATCH_LISTS:
+                return "vnd.android.cursor.dir/vnd.com.nplusnapps.dataprovider.lists";
+            case MATCH_LIST:
+                return "vnd.android.cursor.item/vnd.com.nplusnapps.dataprovider.lists";
             case MATCH_TASK:
                 return "vnd.android.cursor.item/vnd.com.nplusnapps.dataprovider.tasks";
+            case MATCH_METRICS:
+                return "vnd.android.cursor.dir/vnd.com.nplusnapps.dataprovider.metrics";
+            case MATCH_JOURNAL:
+                return "vnd.android.cursor.dir/vnd.com.nplusnapps.dataprovider.journal";
+            case MATCH_TASKS_EXPORT:
+            case MATCH_TASKS_IMPORT:
+                return MIME_TYPE_TASK_LINES;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -71,34 +304,145 @@ public class DataProvider extends ContentProvider {
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        mDatabase = mHelper.getWritableDatabase();
+        // The metrics are only exported by the debug builds, e.g. adb shell content query --uri <METRICS_URI>.
+        if (BuildConfig.DEBUG && sMatcher.match(uri) == MATCH_METRICS) {
+            return Metrics.query();
+        }
+
+        if (sMatcher.match(uri) == MATCH_TASKS_SEARCH) {
+            return searchTasks(uri, projection, null);
+        }
+
+        // The time to build the cursor is measured, the rows are read lazily by the caller.
+        long startTime = Metrics.startTimer();
+        try {
+            return queryTasks(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            Metrics.stopTimer(METRIC_QUERY, startTime);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        // Only the search is long enough to be worth cancelling.
+        if (sMatcher.match(uri) == MATCH_TASKS_SEARCH) {
+            return searchTasks(uri, projection, cancellationSignal);
+        }
+
+        return query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    private Cursor queryTasks(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                              String sortOrder) {
+        // The reads run on the pooled connections, concurrently with the writes in the WAL mode.
+        SQLiteDatabase db = mHelper.getReadableDatabase();
 
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
         builder.setTables(DatabaseHelper.TABLE_TASKS);
 
+        String limitClause = null;
+        int offsetCount = 0;
+        int listId = DEFAULT_LIST_ID;
+        // The selection of the ordered list, the same the benchmarks run, see TaskSchema.
+        String orderedSelection = null;
+        String[] orderedArgs = null;
+
         int match = sMatcher.match(uri);
         switch (match) {
             case MATCH_TASKS:
+                builder.appendWhere(COLUMN_DELETED + " = 0");
                 break;
             case MATCH_TASK:
+                builder.appendWhere(COLUMN_DELETED + " = 0 AND " + COLUMN_ID + " = " + uri.getPathSegments().get(1));
+                break;
+            case MATCH_JOURNAL:
+                builder.setTables(DatabaseHelper.TABLE_JOURNAL);
+                break;
+            case MATCH_LISTS:
+                builder.setTables(DatabaseHelper.TABLE_LISTS);
+                break;
+            case MATCH_LIST:
+                builder.setTables(DatabaseHelper.TABLE_LISTS);
                 builder.appendWhere(COLUMN_ID + " = " + uri.getPathSegments().get(1));
                 break;
+            case MATCH_LIST_TASKS:
+                builder.appendWhere(COLUMN_DELETED + " = 0 AND " + COLUMN_LIST_ID + " = " +
+                        uri.getPathSegments().get(1));
+                break;
+            case MATCH_LIST_TASKS_ORDERED:
+                listId = Integer.parseInt(uri.getPathSegments().get(1));
+                // Falls through, the default list is read the same way.
+            case MATCH_TASKS_ORDERED:
+                // The list order can't be overridden.
+                sortOrder = ORDER_DEFAULT;
+
+                // The keyset paging continues right below the last key of the previous page.
+                String before = uri.getQueryParameter(PARAM_BEFORE);
+                if (before != null) {
+                    orderedSelection = TaskSchema.WHERE_ORDERED_BEFORE;
+                    orderedArgs = new String[] {String.valueOf(listId), String.valueOf(Long.parseLong(before))};
+                } else {
+                    orderedSelection = TaskSchema.WHERE_ORDERED;
+                    orderedArgs = new String[] {String.valueOf(listId)};
+                }
+
+                String offset = uri.getQueryParameter(PARAM_OFFSET);
+                if (offset != null) {
+                    offsetCount = Integer.parseInt(offset);
+                }
+
+                String limit = uri.getQueryParameter(PARAM_LIMIT);
+                if (limit != null) {
+                    limitClause = (offset != null ? Integer.parseInt(offset) + ", " : "") + Integer.parseInt(limit);
+                }
+                break;
             default:
                 throw new SQLException("Unable to query " + uri);
         }
 
+        boolean ordered = match == MATCH_TASKS_ORDERED || match == MATCH_LIST_TASKS_ORDERED;
+
+        // The ordered list is served from memory when the cache can hold it.
+        if (ordered && selection == null && isCachedProjection(projection) &&
+                getCache(listId).ensureLoaded(db, DatabaseHelper.TABLE_TASKS)) {
+            String before = uri.getQueryParameter(PARAM_BEFORE);
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            int limitCount = limit != null ? Integer.parseInt(limit) : -1;
+
+            List<Task> tasks = before != null ?
+                    getCache(listId).getOrderedBefore(Long.parseLong(before), limitCount) :
+                    getCache(listId).getOrdered(offsetCount, limitCount);
+
+            Cursor cursor = buildCursor(projection, tasks);
+            cursor.setNotificationUri(mResolver, uri);
+
+            return cursor;
+        }
+
         if (TextUtils.isEmpty(sortOrder)) {
             switch (match) {
                 case MATCH_TASKS:
+                case MATCH_LIST_TASKS:
                     sortOrder = ORDER_DEFAULT;
                     break;
+                case MATCH_JOURNAL:
+                case MATCH_LISTS:
+                    sortOrder = COLUMN_ID + " ASC";
+                    break;
                 default:
                     break;
             }
         }
 
+        if (ordered) {
+            selection = DatabaseUtils.concatenateWhere(orderedSelection, selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(orderedArgs, selectionArgs);
+        }
+
         Cursor cursor = builder.query(
-                mDatabase, projection, selection, selectionArgs, null, null, sortOrder);
+                db, projection, selection, selectionArgs, null, null, sortOrder, limitClause);
         if (cursor != null) {
             cursor.setNotificationUri(mResolver, uri);
         }
@@ -108,53 +452,1171 @@ public class DataProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        mDatabase = mHelper.getWritableDatabase();
+        long startTime = Metrics.startTimer();
+        try {
+            return insertTask(uri, values);
+        } finally {
+            Metrics.stopTimer(METRIC_INSERT, startTime);
+        }
+    }
+
+    private Uri insertTask(Uri uri, ContentValues values) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
 
         switch (sMatcher.match(uri)) {
             case MATCH_TASKS:
-                long id = mDatabase.insert(DatabaseHelper.TABLE_TASKS, "nullcolumn", values);
+            case MATCH_LIST_TASKS:
+                values = values != null ? new ContentValues(values) : new ContentValues();
+
+                // The list of the URI wins, the tasks added with no list go to the default one.
+                if (sMatcher.match(uri) == MATCH_LIST_TASKS) {
+                    values.put(COLUMN_LIST_ID, Integer.parseInt(uri.getPathSegments().get(1)));
+                } else if (!values.containsKey(COLUMN_LIST_ID)) {
+                    values.put(COLUMN_LIST_ID, DEFAULT_LIST_ID);
+                }
+                int listId = values.getAsInteger(COLUMN_LIST_ID);
+
+                long id;
+
+                db.beginTransaction();
+                try {
+                    // Appends the new task after the current tail unless the position is provided.
+                    // The tail is read from the list row, so the tasks aren't touched.
+                    if (!values.containsKey(COLUMN_POSITION)) {
+                        Long tailPosition = queryLong(db, TaskSchema.SELECT_TAIL,
+                                new String[] {String.valueOf(listId)});
+                        if (tailPosition == null) {
+                            throw new SQLException("No list " + listId + " to insert the row into");
+                        }
+                        values.put(COLUMN_POSITION, tailPosition + POSITION_GAP);
+                    }
+
+                    id = db.insert(DatabaseHelper.TABLE_TASKS, "nullcolumn", values);
+                    if (id != -1) {
+                        getCache(listId).put(new Task((int) id,
+                                values.getAsLong(COLUMN_POSITION), values.getAsString(COLUMN_TASK)));
+                    }
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    endTransaction(db);
+                }
+
                 if (id != -1) {
                     return ContentUris.withAppendedId(CONTENT_URI, id);
                 }
+                throw new SQLException("Failed to insert row into " + uri);
+            case MATCH_LISTS:
+                // Only the name can be set, the rest of the list row is kept by the triggers.
+                ContentValues listValues = new ContentValues();
+                listValues.put(COLUMN_NAME, values != null ? values.getAsString(COLUMN_NAME) : null);
+
+                long listRowId = db.insert(DatabaseHelper.TABLE_LISTS, null, listValues);
+                if (listRowId != -1) {
+                    return ContentUris.withAppendedId(LISTS_URI, listRowId);
+                }
+                throw new SQLException("Failed to insert row into " + uri);
+            case MATCH_JOURNAL:
+                return appendJournal(db, values);
             default:
                 throw new SQLException("Failed to insert row into " + uri);
         }
     }
 
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long startTime = Metrics.startTimer();
+
+        int rowsInserted = 0;
+        boolean successful = false;
+
+        // All the rows are committed at once instead of one transaction per row.
+        db.beginTransaction();
+        try {
+            for (ContentValues rowValues : values) {
+                insert(uri, rowValues);
+                rowsInserted++;
+            }
+
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endTransaction(db);
+
+            // The caches have followed the inserts which are now rolled back.
+            if (!successful) {
+                invalidateCaches();
+            }
+
+            Metrics.stopTimer(METRIC_BULK_INSERT, startTime);
+        }
+
+        return rowsInserted;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mHelper.getWritableDatabase();
+        long startTime = Metrics.startTimer();
+
+        // The operations are applied atomically, so either all of them are committed or none.
+        boolean successful = false;
+
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+
+            database.setTransactionSuccessful();
+            successful = true;
+
+            return results;
+        } finally {
+            endTransaction(database);
+
+            // The caches have followed the writes which are now rolled back.
+            if (!successful) {
+                invalidateCaches();
+            }
+
+            Metrics.stopTimer(METRIC_APPLY_BATCH, startTime);
+            Metrics.record(METRIC_APPLY_BATCH + ".size", operations.size());
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        mDatabase = mHelper.getWritableDatabase();
+        long startTime = Metrics.startTimer();
+        try {
+            return deleteTasks(uri, selection, selectionArgs);
+        } finally {
+            Metrics.stopTimer(METRIC_DELETE, startTime);
+        }
+    }
 
-        switch (sMatcher.match(uri)) {
+    private int deleteTasks(Uri uri, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        int match = sMatcher.match(uri);
+        switch (match) {
             case MATCH_TASKS:
                 break;
             case MATCH_TASK:
                 selection = COLUMN_ID + " = " + uri.getPathSegments().get(1) +
                         (!TextUtils.isEmpty(selection) ? " AND (" + selection + ")" : "");
                 break;
+            case MATCH_JOURNAL:
+                return db.delete(DatabaseHelper.TABLE_JOURNAL, selection, selectionArgs);
+            case MATCH_TASKS_DELETED:
+                return purgeTasks(db, selection, selectionArgs);
+            case MATCH_LIST:
+                return deleteList(db, Integer.parseInt(uri.getPathSegments().get(1)));
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
 
-        return mDatabase.delete(DatabaseHelper.TABLE_TASKS, selection, selectionArgs);
+        int rowsDeleted = db.delete(DatabaseHelper.TABLE_TASKS, selection, selectionArgs);
+        Metrics.record(METRIC_DELETE + ".rows", rowsDeleted);
+        if (rowsDeleted > 0) {
+            TaskCache cache = match == MATCH_TASK ? findCache(Integer.parseInt(uri.getPathSegments().get(1))) : null;
+            if (cache != null) {
+                cache.remove(Integer.parseInt(uri.getPathSegments().get(1)));
+            } else if (match != MATCH_TASK) {
+                invalidateCaches();
+            }
+        }
+
+        return rowsDeleted;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        mDatabase = mHelper.getWritableDatabase();
+        long startTime = Metrics.startTimer();
+        try {
+            return updateTasks(uri, values, selection, selectionArgs);
+        } finally {
+            Metrics.stopTimer(sMatcher.match(uri) == MATCH_TASK_MOVE ? METRIC_MOVE : METRIC_UPDATE, startTime);
+        }
+    }
 
-        switch (sMatcher.match(uri)) {
+    private int updateTasks(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        int match = sMatcher.match(uri);
+        switch (match) {
             case MATCH_TASKS:
                 break;
+            case MATCH_TASK_MOVE:
+                return moveTask(db, Integer.parseInt(uri.getPathSegments().get(1)),
+                        values.getAsInteger(MOVE_TARGET), values.getAsInteger(MOVE_DIRECTION));
             case MATCH_TASK:
+                Long deleted = values.getAsLong(COLUMN_DELETED);
+                if (deleted != null && deleted == 0) {
+                    return restoreTask(db, Integer.parseInt(uri.getPathSegments().get(1)));
+                }
+
                 selection = COLUMN_ID + " = " + uri.getPathSegments().get(1) +
                         (!TextUtils.isEmpty(selection) ? " AND (" + selection + ")" : "");
                 break;
+            case MATCH_JOURNAL:
+                return db.update(DatabaseHelper.TABLE_JOURNAL, values, selection, selectionArgs);
+            case MATCH_LIST:
+                // Only the name can be changed, the rest of the list row is kept by the triggers.
+                ContentValues listValues = new ContentValues();
+                listValues.put(COLUMN_NAME, values.getAsString(COLUMN_NAME));
+
+                return db.update(DatabaseHelper.TABLE_LISTS, listValues,
+                        COLUMN_ID + " = " + uri.getPathSegments().get(1), null);
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
 
-        return mDatabase.update(DatabaseHelper.TABLE_TASKS, values, selection, selectionArgs);
+        int rowsUpdated = db.update(DatabaseHelper.TABLE_TASKS, values, selection, selectionArgs);
+        Metrics.record(METRIC_UPDATE + ".rows", rowsUpdated);
+        if (rowsUpdated > 0) {
+            TaskCache cache = match == MATCH_TASK ? findCache(Integer.parseInt(uri.getPathSegments().get(1))) : null;
+            if (match != MATCH_TASK || values.containsKey(COLUMN_LIST_ID)) {
+                // The task may have moved to another list.
+                invalidateCaches();
+            } else if (cache != null && values.containsKey(COLUMN_DELETED)) {
+                // The task has become a tombstone.
+                cache.remove(Integer.parseInt(uri.getPathSegments().get(1)));
+            } else if (cache != null) {
+                cacheTask(db, cache, Integer.parseInt(uri.getPathSegments().get(1)));
+            }
+        }
+
+        return rowsUpdated;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        switch (method) {
+            case METHOD_CACHE_STATS:
+                // The stats are summed up over the caches of all the lists.
+                long hits = 0, misses = 0, evictions = 0;
+                int size = 0;
+                for (TaskCache cache : getCaches()) {
+                    hits += cache.getHitCount();
+                    misses += cache.getMissCount();
+                    evictions += cache.getEvictionCount();
+                    size += cache.size();
+                }
+
+                Bundle stats = new Bundle();
+                stats.putLong(STAT_HITS, hits);
+                stats.putLong(STAT_MISSES, misses);
+                stats.putLong(STAT_EVICTIONS, evictions);
+                stats.putInt(STAT_SIZE, size);
+
+                return stats;
+            case METHOD_REBALANCE:
+                rebalanceLists();
+
+                return null;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        switch (sMatcher.match(uri)) {
+            case MATCH_TASKS_EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Unable to open " + uri + " in mode " + mode);
+                }
+
+                // The tasks are written to the pipe on a background thread as fast as the caller reads them.
+                return openPipeHelper(uri, MIME_TYPE_TASK_LINES, null, getListParameter(uri),
+                        new PipeDataWriter<Integer>() {
+                            @Override
+                            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                                        Bundle opts, Integer listId) {
+                                exportTasks(output, listId);
+                            }
+                        });
+            case MATCH_TASKS_IMPORT:
+                if (!mode.startsWith("w")) {
+                    throw new FileNotFoundException("Unable to open " + uri + " in mode " + mode);
+                }
+
+                final int listId = getListParameter(uri);
+                final ParcelFileDescriptor[] pipe;
+                try {
+                    pipe = ParcelFileDescriptor.createPipe();
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Unable to open " + uri + ": " + e.getMessage());
+                }
+
+                // The caller gets the write end, the tasks are read from the other one on a background thread.
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        importTasks(pipe[0], listId);
+                    }
+                });
+
+                return pipe[1];
+            default:
+                throw new FileNotFoundException("Unsupported URI: " + uri);
+        }
+    }
+
+    /**
+     * Builds the URI of the list row.
+     *
+     * @param listId The list ID
+     * @return The list URI
+     */
+    public static Uri getListUri(int listId) {
+        return ContentUris.withAppendedId(LISTS_URI, listId);
+    }
+
+    /**
+     * Builds the URI of the tasks of the list, e.g. to add a task to the list.
+     *
+     * @param listId The list ID
+     * @return The tasks URI
+     */
+    public static Uri getListTasksUri(int listId) {
+        return getListUri(listId).buildUpon().appendPath(PATH_TASKS).build();
+    }
+
+    /**
+     * Builds the URI to read the tasks of the list in the list order.
+     *
+     * @param listId The list ID
+     * @return The ordered tasks URI
+     */
+    public static Uri getOrderedUri(int listId) {
+        return getListTasksUri(listId).buildUpon().appendPath(PATH_ORDERED).build();
+    }
+
+    /**
+     * Builds the URI to read a page of the ordered list by its offset.
+     *
+     * @param listId The list ID
+     * @param offset The offset of the first row
+     * @param limit The maximum row count
+     * @return The page URI
+     */
+    public static Uri getPageUri(int listId, int offset, int limit) {
+        return getOrderedUri(listId).buildUpon().appendQueryParameter(PARAM_OFFSET, String.valueOf(offset)).
+                appendQueryParameter(PARAM_LIMIT, String.valueOf(limit)).build();
+    }
+
+    /**
+     * Builds the URI to read a page of the ordered list following the row with the provided key.
+     *
+     * @param listId The list ID
+     * @param lastPosition The key of the last row of the previous page
+     * @param limit The maximum row count
+     * @return The page URI
+     */
+    public static Uri getPageUri(int listId, long lastPosition, int limit) {
+        return getOrderedUri(listId).buildUpon().appendQueryParameter(PARAM_BEFORE, String.valueOf(lastPosition)).
+                appendQueryParameter(PARAM_LIMIT, String.valueOf(limit)).build();
+    }
+
+    /**
+     * Builds the export or import URI of the list.
+     *
+     * @param transferUri <code>EXPORT_URI</code> or <code>IMPORT_URI</code>
+     * @param listId The list ID
+     * @return The URI
+     */
+    public static Uri getTransferUri(Uri transferUri, int listId) {
+        return transferUri.buildUpon().appendQueryParameter(PARAM_LIST, String.valueOf(listId)).build();
+    }
+
+    /**
+     * Builds the URI to notify the observers about the tasks changed by a batch with a single notification.
+     *
+     * @param changedIds The IDs of the tasks to read again
+     * @param deletedIds The IDs of the deleted tasks
+     * @return The notification URI
+     */
+    public static Uri getChangeUri(Collection<Integer> changedIds, Collection<Integer> deletedIds) {
+        return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_CHANGED, TextUtils.join(",", changedIds)).
+                appendQueryParameter(PARAM_DELETED, TextUtils.join(",", deletedIds)).build();
+    }
+
+    /**
+     * Parses the task IDs listed in the parameter of the notification URI.
+     *
+     * @param uri The notification URI
+     * @param parameter The parameter, <code>PARAM_CHANGED</code> or <code>PARAM_DELETED</code>
+     * @return The IDs, or null if the URI doesn't list them
+     */
+    public static List<Integer> getChangedIds(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return null;
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        for (String id : TextUtils.split(value, ",")) {
+            ids.add(Integer.parseInt(id));
+        }
+
+        return ids;
+    }
+
+    /**
+     * Builds the URI to move the task with the provided ID.
+     *
+     * @param id The task ID
+     * @return The move URI
+     */
+    public static Uri getMoveUri(long id) {
+        return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_MOVE).build();
+    }
+
+    /**
+     * Builds the URI to search the tasks of the list.
+     *
+     * @param listId The list ID
+     * @param query The words to look for
+     * @param limit The maximum task count
+     * @return The search URI
+     */
+    public static Uri getSearchUri(int listId, String query, int limit) {
+        return SEARCH_URI.buildUpon().
+                appendQueryParameter(PARAM_LIST, String.valueOf(listId)).
+                appendQueryParameter(PARAM_QUERY, query).
+                appendQueryParameter(PARAM_LIMIT, String.valueOf(limit)).build();
+    }
+
+    /**
+     * Looks the tasks up in the full-text index. The matches are ranked by the number of the query word
+     * hits in the task relative to their hits in all the tasks, the ties go in the list order.
+     * The ranking and the limit are applied by the query, so only the returned tasks are read.
+     *
+     * @param uri The search URI
+     * @param projection The projection, any of the ID, position and task columns
+     * @param cancellationSignal The signal to cancel the query, null if it can't be cancelled
+     * @return The cursor
+     */
+    private Cursor searchTasks(Uri uri, String[] projection, Object cancellationSignal) {
+        long startTime = Metrics.startTimer();
+
+        String match = buildMatchQuery(uri.getQueryParameter(PARAM_QUERY));
+        String limit = uri.getQueryParameter(PARAM_LIMIT);
+        int limitCount = limit != null ? Integer.parseInt(limit) : DEFAULT_SEARCH_LIMIT;
+        String list = uri.getQueryParameter(PARAM_LIST);
+
+        if (!isCachedProjection(projection)) {
+            throw new IllegalArgumentException("Unsupported projection: " + Arrays.toString(projection));
+        }
+
+        List<Task> tasks = new ArrayList<>();
+
+        if (match != null) {
+            SQLiteDatabase db = mHelper.getReadableDatabase();
+
+            // Every word of the match query is a phrase of its own.
+            String rank = TaskSchema.getSearchRank("f.info", match.split(" ").length);
+            String sql = "SELECT t." + COLUMN_ID + ", t." + COLUMN_POSITION + ", t." + COLUMN_TASK +
+                    " FROM (SELECT docid, hex(matchinfo(" + DatabaseHelper.TABLE_SEARCH + ")) AS info FROM " +
+                    DatabaseHelper.TABLE_SEARCH + " WHERE " + DatabaseHelper.TABLE_SEARCH + " MATCH ?) f JOIN " +
+                    DatabaseHelper.TABLE_TASKS + " t ON t." + COLUMN_ID + " = f.docid WHERE t." + COLUMN_DELETED +
+                    " = 0" + (list != null ? " AND t." + COLUMN_LIST_ID + " = " + Integer.parseInt(list) : "") +
+                    " ORDER BY " + rank + " DESC, t." + ORDER_DEFAULT + " LIMIT " + limitCount;
+
+            Cursor cursor = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+                    db.rawQuery(sql, new String[] {match}, (CancellationSignal) cancellationSignal) :
+                    db.rawQuery(sql, new String[] {match});
+            try {
+                while (cursor.moveToNext()) {
+                    tasks.add(new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Cursor cursor = buildCursor(projection, tasks);
+        cursor.setNotificationUri(mResolver, CONTENT_URI);
+
+        Metrics.stopTimer(METRIC_SEARCH, startTime);
+
+        return cursor;
+    }
+
+    /**
+     * Builds the full-text query matching the tasks with all the words starting with the provided ones.
+     * Only the letters and digits are kept, so the user input can't break the query syntax.
+     *
+     * @param query The user input
+     * @return The query, or null if there are no words
+     */
+    private static String buildMatchQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                match.append(match.length() > 0 ? " " : "").append(word).append('*');
+            }
+        }
+
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Writes the tasks to the pipe as JSON lines. The list is read by the keyset pages, so only a page
+     * is held in memory and no connection is kept while the caller is reading.
+     *
+     * @param output The write end of the pipe, closed by the caller
+     * @param listId The list ID
+     */
+    private void exportTasks(ParcelFileDescriptor output, int listId) {
+        long startTime = Metrics.startTimer();
+        int rowsExported = 0;
+
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), "UTF-8"));
+
+            Long lastPosition = null;
+            int pageRows;
+            do {
+                Cursor cursor = db.query(DatabaseHelper.TABLE_TASKS, new String[] {COLUMN_POSITION, COLUMN_TASK},
+                        COLUMN_DELETED + " = 0 AND " + COLUMN_LIST_ID + " = " + listId + (lastPosition != null ?
+                                " AND " + COLUMN_POSITION + " < " + lastPosition : ""), null, null, null,
+                        ORDER_DEFAULT, String.valueOf(TRANSFER_CHUNK_SIZE));
+                try {
+                    pageRows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        lastPosition = cursor.getLong(0);
+
+                        writer.write("{\"" + COLUMN_TASK + "\":" +
+                                (cursor.isNull(1) ? "null" : JSONObject.quote(cursor.getString(1))) + "}\n");
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                rowsExported += pageRows;
+            } while (pageRows == TRANSFER_CHUNK_SIZE);
+
+            writer.flush();
+        } catch (IOException e) {
+            // The caller may have closed the pipe before reading it all.
+            Log.e(DataProvider.class.getSimpleName(), e.getMessage(), e);
+        } finally {
+            Metrics.stopTimer(METRIC_EXPORT, startTime);
+            Metrics.record(METRIC_EXPORT + ".rows", rowsExported);
+        }
+    }
+
+    /**
+     * Reads the JSON lines from the pipe and appends the tasks below the list. The keys are given
+     * in a single pass as the lines are read, every chunk is committed in its own transaction, so the other
+     * writes aren't held up for the whole import. The chunks committed before a failure are kept,
+     * the malformed lines are skipped.
+     *
+     * @param input The read end of the pipe
+     * @param listId The list ID
+     */
+    private void importTasks(ParcelFileDescriptor input, int listId) {
+        long startTime = Metrics.startTimer();
+        int rowsImported = 0, rowsSkipped = 0;
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_TASKS + " (" +
+                COLUMN_LIST_ID + ", " + COLUMN_POSITION + ", " + COLUMN_TASK + ") VALUES (?, ?, ?)");
+        TaskCache cache = getCache(listId);
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new ParcelFileDescriptor.AutoCloseInputStream(input), "UTF-8"));
+
+            List<String> texts = new ArrayList<>(TRANSFER_CHUNK_SIZE);
+            boolean finished = false;
+            while (!finished) {
+                // The chunk is read before the transaction starts, so a slow writer doesn't hold the database.
+                texts.clear();
+                while (texts.size() < TRANSFER_CHUNK_SIZE) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        finished = true;
+                        break;
+                    }
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    try {
+                        JSONObject object = new JSONObject(line);
+                        texts.add(object.isNull(COLUMN_TASK) ? null : object.getString(COLUMN_TASK));
+                    } catch (JSONException e) {
+                        rowsSkipped++;
+                    }
+                }
+
+                if (texts.isEmpty()) {
+                    continue;
+                }
+
+                db.beginTransaction();
+                try {
+                    Long headPosition = queryLong(db, "SELECT " + COLUMN_HEAD + " FROM " +
+                            DatabaseHelper.TABLE_LISTS + " WHERE " + COLUMN_ID + " = " + listId, null);
+                    if (headPosition == null) {
+                        throw new SQLException("No list " + listId + " to import the tasks into");
+                    }
+                    long position = headPosition;
+
+                    for (String text : texts) {
+                        position -= POSITION_GAP;
+
+                        statement.clearBindings();
+                        statement.bindLong(1, listId);
+                        statement.bindLong(2, position);
+                        if (text != null) {
+                            statement.bindString(3, text);
+                        }
+
+                        long id = statement.executeInsert();
+                        if (id != -1) {
+                            cache.put(new Task((int) id, position, text));
+                        }
+                    }
+
+                    db.setTransactionSuccessful();
+                } finally {
+                    endTransaction(db);
+                }
+
+                rowsImported += texts.size();
+            }
+        } catch (IOException | SQLException e) {
+            Log.e(DataProvider.class.getSimpleName(), e.getMessage(), e);
+
+            // The cache may have followed the rows of the rolled back chunk.
+            cache.invalidate();
+        } finally {
+            statement.close();
+
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e(DataProvider.class.getSimpleName(), e.getMessage(), e);
+                }
+            }
+
+            if (rowsImported > 0) {
+                mResolver.notifyChange(CONTENT_URI, null);
+            }
+
+            Metrics.stopTimer(METRIC_IMPORT, startTime);
+            Metrics.record(METRIC_IMPORT + ".rows", rowsImported);
+            Metrics.add(METRIC_IMPORT + ".skipped", rowsSkipped);
+        }
+    }
+
+    /**
+     * Moves the task next to the target task by giving it the key in the middle of the gap.
+     * The list is rebalanced in the background once the gap gets narrow, see {@link #REBALANCE_GAP}.
+     * Only if it has run out before then, the keys are rebalanced here first.
+     *
+     * @param db The database
+     * @param selectedId The selected task ID
+     * @param targetId The target task ID
+     * @param moveDirection The direction in which to move the task
+     *                      {@link #DIRECTION_UP} or {@link #DIRECTION_DOWN}
+     * @return The number of rows updated
+     */
+    private int moveTask(SQLiteDatabase db, int selectedId, int targetId, int moveDirection) {
+        int rowsUpdated = 0;
+
+        db.beginTransaction();
+        try {
+            // The task can only be moved within its list, i.e. the list of the target.
+            Integer listId = findListId(db, targetId);
+            if (listId == null) {
+                db.setTransactionSuccessful();
+                return 0;
+            }
+            TaskCache cache = getCache(listId);
+
+            boolean cached = cache.ensureLoaded(db, DatabaseHelper.TABLE_TASKS);
+
+            // A deleted target has nothing to move next to.
+            Long targetPosition = findPosition(db, cached ? cache : null, targetId);
+            if (targetPosition == null) {
+                db.setTransactionSuccessful();
+                return 0;
+            }
+
+            Long position = findMovePosition(db, cached ? cache : null, listId, selectedId, targetPosition,
+                    moveDirection);
+            if (position == null) {
+                Metrics.increment(METRIC_REBALANCE_MOVE);
+
+                rebalancePositions(db, listId);
+                cache.invalidate();
+                cached = cache.ensureLoaded(db, DatabaseHelper.TABLE_TASKS);
+
+                // The rebalanced keys are a whole gap apart, so there's room next to the target now.
+                targetPosition = findPosition(db, cached ? cache : null, targetId);
+                position = findMovePosition(db, cached ? cache : null, listId, selectedId, targetPosition,
+                        moveDirection);
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_POSITION, position);
+
+            rowsUpdated = db.update(DatabaseHelper.TABLE_TASKS, values, COLUMN_ID + " = " + selectedId +
+                    " AND " + COLUMN_LIST_ID + " = " + listId, null);
+            if (rowsUpdated > 0) {
+                Task task = cache.get(selectedId);
+                if (task != null) {
+                    cache.put(new Task(selectedId, position, task.getText()));
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            endTransaction(db);
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Finds the key of the live task, in the cache if it's loaded.
+     *
+     * @param db The database
+     * @param cache The cache of the list, null if it isn't loaded
+     * @param id The task ID
+     * @return The key, or null if there's no such task or it's deleted
+     */
+    private Long findPosition(SQLiteDatabase db, TaskCache cache, int id) {
+        if (cache != null) {
+            Task task = cache.get(id);
+            return task != null ? task.getPosition() : null;
+        }
+
+        return queryLong(db, TaskSchema.SELECT_POSITION, new String[] {String.valueOf(id)});
+    }
+
+    /**
+     * Finds the free key right above ({@link #DIRECTION_UP}) or right below
+     * ({@link #DIRECTION_DOWN}) the target task. The keys are looked up in the cache if it's loaded.
+     * The list is scheduled for rebalancing if the gap left is narrower than {@link #REBALANCE_GAP}.
+     *
+     * @param db The database
+     * @param cache The cache of the list, null if it isn't loaded
+     * @param listId The list ID
+     * @param selectedId The selected task ID
+     * @param targetPosition The key of the target task
+     * @param moveDirection The direction in which to move the task
+     * @return The free key, or null if there's no gap left
+     */
+    private Long findMovePosition(SQLiteDatabase db, TaskCache cache, int listId,
+                                  int selectedId, long targetPosition, int moveDirection) {
+        // The list is displayed in the descending order, so moving up means taking a greater key.
+        boolean up = moveDirection == DIRECTION_UP;
+
+        // The tombstones are skipped in both, their keys are taken by the restore if they clash.
+        Long neighbourPosition = cache != null ? cache.getNeighbourPosition(targetPosition, selectedId, up) :
+                queryLong(db, up ? TaskSchema.SELECT_NEIGHBOUR_ABOVE : TaskSchema.SELECT_NEIGHBOUR_BELOW,
+                        new String[] {String.valueOf(listId), String.valueOf(targetPosition),
+                                String.valueOf(selectedId)});
+
+        Long position = TaskSchema.getMovePosition(targetPosition, neighbourPosition, up);
+
+        if (position != null && neighbourPosition != null && Math.abs(position - targetPosition) < REBALANCE_GAP) {
+            scheduleRebalance(listId);
+        }
+
+        return position;
+    }
+
+    /**
+     * Marks the list to be rebalanced once the service is idle.
+     *
+     * @param listId The list ID
+     */
+    private void scheduleRebalance(int listId) {
+        synchronized (mRebalanceLists) {
+            if (mRebalanceLists.add(listId)) {
+                Metrics.increment(METRIC_REBALANCE_SCHEDULED);
+            }
+        }
+    }
+
+    /**
+     * Rebalances the scheduled lists, each in its own transaction, and notifies the observers,
+     * as the keys they hold have changed.
+     */
+    private void rebalanceLists() {
+        List<Integer> listIds;
+        synchronized (mRebalanceLists) {
+            listIds = new ArrayList<>(mRebalanceLists);
+            mRebalanceLists.clear();
+        }
+
+        if (listIds.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        for (int listId : listIds) {
+            db.beginTransaction();
+            try {
+                rebalancePositions(db, listId);
+                getCache(listId).invalidate();
+
+                db.setTransactionSuccessful();
+            } finally {
+                endTransaction(db);
+            }
+        }
+
+        mResolver.notifyChange(CONTENT_URI, null);
+    }
+
+    /**
+     * Spreads the keys of the list evenly keeping the current order.
+     *
+     * @param db The database
+     * @param listId The list ID
+     */
+    private void rebalancePositions(SQLiteDatabase db, int listId) {
+        Log.i(DataProvider.class.getSimpleName(), "Rebalancing the task positions of the list " + listId + ".");
+
+        long startTime = Metrics.startTimer();
+
+        Cursor cursor = db.rawQuery(TaskSchema.SELECT_REBALANCE, new String[] {String.valueOf(listId)});
+        SQLiteStatement statement = db.compileStatement(TaskSchema.UPDATE_POSITION);
+        try {
+            long position = 0;
+            while (cursor.moveToNext()) {
+                position += POSITION_GAP;
+
+                statement.bindLong(1, position);
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.close();
+            cursor.close();
+
+            Metrics.stopTimer(METRIC_REBALANCE, startTime);
+        }
+    }
+
+    /**
+     * Restores the tombstone. The restored task keeps its key, unless another task has taken the key
+     * in the meantime, e.g. it has been moved into the same gap. The restored task goes right below
+     * such a task then.
+     *
+     * @param db The database
+     * @param id The task ID
+     * @return The number of rows updated
+     */
+    private int restoreTask(SQLiteDatabase db, int id) {
+        long startTime = Metrics.startTimer();
+        int rowsUpdated;
+
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DELETED, 0);
+
+            rowsUpdated = db.update(DatabaseHelper.TABLE_TASKS, values,
+                    COLUMN_ID + " = " + id + " AND " + COLUMN_DELETED + " != 0", null);
+            if (rowsUpdated > 0) {
+                Long clashingId = queryLong(db, "SELECT t." + COLUMN_ID + " FROM " +
+                        DatabaseHelper.TABLE_TASKS + " t, " + DatabaseHelper.TABLE_TASKS + " r WHERE r." +
+                        COLUMN_ID + " = " + id + " AND t." + COLUMN_LIST_ID + " = r." + COLUMN_LIST_ID +
+                        " AND t." + COLUMN_POSITION + " = r." + COLUMN_POSITION + " AND t." + COLUMN_ID + " != " +
+                        id + " AND t." + COLUMN_DELETED + " = 0 LIMIT 1", null);
+                if (clashingId != null) {
+                    moveTask(db, id, clashingId.intValue(), DIRECTION_DOWN);
+                }
+
+                Cursor cursor = db.query(DatabaseHelper.TABLE_TASKS, new String[] {COLUMN_LIST_ID, COLUMN_POSITION,
+                        COLUMN_TASK}, COLUMN_ID + " = " + id, null, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        getCache(cursor.getInt(0)).put(new Task(id, cursor.getLong(1), cursor.getString(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            endTransaction(db);
+
+            Metrics.stopTimer(METRIC_RESTORE, startTime);
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Deletes the tombstones for good in a single statement. The keys of the other tasks stay as they are,
+     * the gaps left behind are taken by the later moves.
+     *
+     * @param db The database
+     * @param selection The selection narrowing the tombstones down, null for all of them
+     * @param selectionArgs The selection arguments
+     * @return The number of rows deleted
+     */
+    private int purgeTasks(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        long startTime = Metrics.startTimer();
+
+        // The tombstones aren't cached, so the cache stays as it is.
+        int rowsDeleted = db.delete(DatabaseHelper.TABLE_TASKS,
+                DatabaseUtils.concatenateWhere(TaskSchema.WHERE_TOMBSTONES, selection), selectionArgs);
+
+        Metrics.stopTimer(METRIC_PURGE, startTime);
+        Metrics.record(METRIC_PURGE + ".rows", rowsDeleted);
+
+        return rowsDeleted;
+    }
+
+    /**
+     * Deletes the list and all its tasks in a single transaction.
+     *
+     * @param db The database
+     * @param listId The list ID, not the default one
+     * @return The number of the lists deleted
+     */
+    private int deleteList(SQLiteDatabase db, int listId) {
+        if (listId == DEFAULT_LIST_ID) {
+            throw new IllegalArgumentException("The default list can't be deleted");
+        }
+
+        int rowsDeleted;
+
+        db.beginTransaction();
+        try {
+            db.delete(DatabaseHelper.TABLE_TASKS, COLUMN_LIST_ID + " = " + listId, null);
+            rowsDeleted = db.delete(DatabaseHelper.TABLE_LISTS, COLUMN_ID + " = " + listId, null);
+
+            db.setTransactionSuccessful();
+        } finally {
+            endTransaction(db);
+        }
+
+        synchronized (mCaches) {
+            mCaches.remove(listId);
+        }
+
+        return rowsDeleted;
+    }
+
+    /**
+     * Gets the cache of the list, it's created on the first use.
+     *
+     * @param listId The list ID
+     * @return The cache
+     */
+    private TaskCache getCache(int listId) {
+        synchronized (mCaches) {
+            TaskCache cache = mCaches.get(listId);
+            if (cache == null) {
+                cache = new TaskCache(listId, TaskCache.DEFAULT_MAX_SIZE);
+                mCaches.put(listId, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    private List<TaskCache> getCaches() {
+        synchronized (mCaches) {
+            return new ArrayList<>(mCaches.values());
+        }
+    }
+
+    /**
+     * Finds the cache holding the task.
+     *
+     * @param id The task ID
+     * @return The cache, or null if the task isn't cached
+     */
+    private TaskCache findCache(int id) {
+        for (TaskCache cache : getCaches()) {
+            if (cache.get(id) != null) {
+                return cache;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the list of the task, looking it up in the caches first.
+     *
+     * @param db The database
+     * @param id The task ID
+     * @return The list ID, or null if there's no such task
+     */
+    private Integer findListId(SQLiteDatabase db, int id) {
+        TaskCache cache = findCache(id);
+        if (cache != null) {
+            return cache.getListId();
+        }
+
+        Long listId = queryLong(db, "SELECT " + COLUMN_LIST_ID + " FROM " + DatabaseHelper.TABLE_TASKS +
+                " WHERE " + COLUMN_ID + " = " + id, null);
+        return listId != null ? listId.intValue() : null;
+    }
+
+    private void invalidateCaches() {
+        for (TaskCache cache : getCaches()) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Reads the list ID of the export or import URI.
+     *
+     * @param uri The URI
+     * @return The list ID, the default one if the URI has none
+     */
+    private static int getListParameter(Uri uri) {
+        String list = uri.getQueryParameter(PARAM_LIST);
+        return list != null ? Integer.parseInt(list) : DEFAULT_LIST_ID;
+    }
+
+    /**
+     * Appends the command to the journal unless the command with the same ID has been journaled already,
+     * i.e. its intent has been redelivered. The unique command ID turns the duplicate away, so it takes
+     * no query of its own, and the duplicate doesn't fail the batch the command is appended in.
+     *
+     * @param db The database
+     * @param values The command values
+     * @return The journal record URI, or the journal URI with no ID if the command is a duplicate
+     */
+    private Uri appendJournal(SQLiteDatabase db, ContentValues values) {
+        long id = db.insertWithOnConflict(DatabaseHelper.TABLE_JOURNAL, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+
+        return id != -1 ? ContentUris.withAppendedId(JOURNAL_URI, id) : JOURNAL_URI;
+    }
+
+    /**
+     * Reads the updated task back into the cache, as the update may have written only some of its columns.
+     *
+     * @param db The database
+     * @param cache The cache holding the task
+     * @param id The task ID
+     */
+    private void cacheTask(SQLiteDatabase db, TaskCache cache, int id) {
+        Cursor cursor = db.query(DatabaseHelper.TABLE_TASKS, new String[] {COLUMN_POSITION, COLUMN_TASK},
+                COLUMN_ID + " = " + id, null, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                cache.put(new Task(id, cursor.getLong(0), cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checks whether the projection can be served from the cache, i.e. it only has the cached columns.
+     *
+     * @param projection The projection, null for all the columns
+     * @return True if the cache has all the columns
+     */
+    private static boolean isCachedProjection(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+
+        for (String column : projection) {
+            if (!COLUMN_ID.equals(column) && !COLUMN_POSITION.equals(column) && !COLUMN_TASK.equals(column)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the cursor over the cached tasks.
+     *
+     * @param projection The projection, null for all the columns
+     * @param tasks The tasks
+     * @return The cursor
+     */
+    private static Cursor buildCursor(String[] projection, List<Task> tasks) {
+        if (projection == null) {
+            projection = new String[] {COLUMN_ID, COLUMN_POSITION, COLUMN_TASK};
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, tasks.size());
+        Object[] row = new Object[projection.length];
+
+        for (Task task : tasks) {
+            for (int i = 0; i < projection.length; i++) {
+                if (COLUMN_ID.equals(projection[i])) {
+                    row[i] = task.getId();
+                } else if (COLUMN_POSITION.equals(projection[i])) {
+                    row[i] = task.getPosition();
+                } else {
+                    row[i] = task.getText();
+                }
+            }
+            cursor.addRow(row);
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Ends the transaction and times the commit of the outermost one, the nested ones only join it.
+     * Each outermost transaction syncs the log once, so the count of the commit timer is the count
+     * of the syncs of the explicit transactions. The rolled back ones are counted too.
+     *
+     * @param db The database
+     */
+    private static void endTransaction(SQLiteDatabase db) {
+        long startTime = Metrics.startTimer();
+
+        db.endTransaction();
+
+        if (!db.inTransaction()) {
+            Metrics.stopTimer(METRIC_COMMIT, startTime);
+        }
+    }
+
+    /**
+     * Runs the query returning a single number, e.g. a key or an ID.
+     *
+     * @param db The database
+     * @param sql The query
+     * @param selectionArgs The query arguments
+     * @return The number, or null if there's none
+     */
+    private static Long queryLong(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return null;
     }
 
     /**
@@ -162,31 +1624,257 @@ public class DataProvider extends ContentProvider {
      */
     public static class DatabaseHelper extends SQLiteOpenHelper {
         public static final String DATABASE_NAME = "ToDoList.db";
-        public static final int DATABASE_VERSION = 1;
+        public static final int DATABASE_VERSION = TaskSchema.SCHEMA_VERSION;
+
+        public static final String TABLE_TASKS = TaskSchema.TABLE_TASKS;
+        public static final String INDEX_POSITION = TaskSchema.INDEX_POSITION;
+        public static final String INDEX_LIST_POSITION = TaskSchema.INDEX_LIST_POSITION;
+        public static final String TABLE_JOURNAL = TaskSchema.TABLE_JOURNAL;
+        public static final String TABLE_SEARCH = TaskSchema.TABLE_SEARCH;
+        public static final String TABLE_LISTS = TaskSchema.TABLE_LISTS;
 
-        public static final String TABLE_TASKS = "Tasks";
+        // The version 1 kept the tasks in a doubly linked list.
+        private static final String LEGACY_COLUMN_PREVIOUS = "previous";
+        private static final String LEGACY_COLUMN_NEXT = "next";
+        private static final String LEGACY_TABLE_TASKS = "Tasks_v1";
 
-        private static final String CREATE_TABLE =
-                "CREATE TABLE " + TABLE_TASKS + " (" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                        COLUMN_PREVIOUS + " INTEGER, " + COLUMN_NEXT + " INTEGER, "+ COLUMN_TASK + " TEXT);";
-        private static final String DROP_TABLE = "DROP TABLE IF EXISTS '" + TABLE_TASKS + "'";
+        // The WAL is checkpointed once it has grown by this many pages, and truncated down to the size limit.
+        private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+        private static final long WAL_SIZE_LIMIT = 1024 * 1024;
+
+        // The SQLite of the devices before Lollipop has no Unicode tokenizer, it's built with the ICU one.
+        private static final String SEARCH_TOKENIZER = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ?
+                TaskSchema.TOKENIZER_UNICODE : TaskSchema.TOKENIZER_ICU;
 
         public DatabaseHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
             super(context, name, factory, version);
+
+            // The write-ahead log lets the readers run on their own connections while the service is writing.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                setWriteAheadLoggingEnabled(true);
+            }
         }
 
         @Override
         public void onCreate(SQLiteDatabase db) {
-            db.execSQL(CREATE_TABLE);
+            // The schema is built with the statements of the migrations, the later columns are added on top.
+            for (String sql : TaskSchema.createSchema(SEARCH_TOKENIZER)) {
+                db.execSQL(sql);
+            }
         }
 
+        /**
+         * Runs the migration steps one version after another, so any older database is brought up to date
+         * keeping its data. A new version adds its step here, the earlier steps must never be changed.
+         * The whole upgrade runs in a single transaction.
+         */
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // Warn before upgrading the database.
-            Log.w(DataProvider.class.getSimpleName(), "Upgrading database from version " + oldVersion +
-                    " to " + newVersion + ". All existing tables will be destroyed.");
-            db.execSQL(DROP_TABLE);
-            onCreate(db);
+            Log.i(DataProvider.class.getSimpleName(), "Upgrading database from version " + oldVersion +
+                    " to " + newVersion + ".");
+
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                switch (version) {
+                    case 2:
+                        convertLinkedList(db);
+                        break;
+                    case 3:
+                        db.execSQL(TaskSchema.CREATE_INDEX_POSITION);
+                        break;
+                    case 4:
+                        db.execSQL(TaskSchema.CREATE_JOURNAL);
+                        break;
+                    case 5:
+                        createSearchIndex(db);
+                        db.execSQL(TaskSchema.FILL_SEARCH);
+                        break;
+                    case 6:
+                        db.execSQL(TaskSchema.ADD_COLUMN_DELETED);
+                        break;
+                    case 7:
+                        // The tasks go to the default list, the new index supersedes the position one.
+                        db.execSQL(TaskSchema.ADD_COLUMN_LIST_ID);
+                        db.execSQL("DROP INDEX IF EXISTS " + INDEX_POSITION);
+                        db.execSQL(TaskSchema.CREATE_INDEX_LIST_POSITION);
+                        db.execSQL(TaskSchema.ADD_JOURNAL_COLUMN_LIST_ID);
+                        createLists(db);
+                        break;
+                    case 8:
+                        // The triggers of the previous version don't bump the list version.
+                        db.execSQL(TaskSchema.ADD_LISTS_COLUMN_VERSION);
+                        createListTriggers(db);
+                        break;
+                    case 9:
+                        // The simple tokenizer of the previous versions folds the case of the ASCII letters only.
+                        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
+                        for (String name : TaskSchema.SEARCH_TRIGGER_NAMES) {
+                            db.execSQL("DROP TRIGGER IF EXISTS " + name);
+                        }
+                        createSearchIndex(db);
+                        db.execSQL(TaskSchema.FILL_SEARCH);
+                        break;
+                    case 10:
+                        db.execSQL(TaskSchema.ADD_JOURNAL_COLUMN_ATTEMPTS);
+                        break;
+                    default:
+                        throw new IllegalStateException("No migration to version " + version);
+                }
+            }
+        }
+
+        /**
+         * Creates the lists table and the default list holding all the existing tasks.
+         *
+         * @param db The database
+         */
+        private void createLists(SQLiteDatabase db) {
+            db.execSQL(TaskSchema.CREATE_LISTS);
+            db.execSQL(TaskSchema.INSERT_DEFAULT_LIST);
+        }
+
+        /**
+         * Creates the triggers keeping the list rows in sync with the tasks, replacing the existing ones.
+         *
+         * @param db The database
+         */
+        private void createListTriggers(SQLiteDatabase db) {
+            for (String name : TaskSchema.LIST_TRIGGER_NAMES) {
+                db.execSQL("DROP TRIGGER IF EXISTS " + name);
+            }
+
+            for (String sql : TaskSchema.CREATE_LIST_TRIGGERS) {
+                db.execSQL(sql);
+            }
+        }
+
+        private void createSearchIndex(SQLiteDatabase db) {
+            for (String sql : TaskSchema.createSearch(SEARCH_TOKENIZER)) {
+                db.execSQL(sql);
+            }
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (!db.isReadOnly()) {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                    db.enableWriteAheadLogging();
+                }
+
+                queryPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+                queryPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT);
+            }
+
+            if (BuildConfig.DEBUG) {
+                checkQueryPlans(db);
+            }
+        }
+
+        /**
+         * Runs the pragma through a query, as some of them return a row which <code>execSQL()</code> doesn't accept.
+         *
+         * @param db The database
+         * @param pragma The pragma statement
+         */
+        private void queryPragma(SQLiteDatabase db, String pragma) {
+            Cursor cursor = db.rawQuery(pragma, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Logs the plan of every hot query and warns about those not served by the list index.
+         *
+         * @param db The database
+         */
+        private void checkQueryPlans(SQLiteDatabase db) {
+            for (String query : TaskSchema.HOT_QUERIES) {
+                StringBuilder plan = new StringBuilder();
+
+                Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+                try {
+                    int detailIndex = cursor.getColumnIndexOrThrow("detail");
+                    while (cursor.moveToNext()) {
+                        plan.append(cursor.getString(detailIndex)).append("; ");
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                String detail = plan.toString();
+                if (!TaskSchema.isIndexedPlan(detail)) {
+                    Log.w(DataProvider.class.getSimpleName(), "Query doesn't use the list index: " + query +
+                            ", plan: " + detail);
+                } else {
+                    Log.d(DataProvider.class.getSimpleName(), "Query plan: " + query + ", plan: " + detail);
+                }
+            }
+        }
+
+        /**
+         * Replaces the previous and next links of the version 1 with the position keys.
+         * The rows which can't be reached through the links are kept below the rest of the list.
+         *
+         * @param db The database
+         */
+        private void convertLinkedList(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_TASKS + " RENAME TO " + LEGACY_TABLE_TASKS);
+            db.execSQL(TaskSchema.CREATE_TABLE);
+
+            Cursor cursor = db.query(LEGACY_TABLE_TASKS, new String[] {COLUMN_ID, LEGACY_COLUMN_PREVIOUS,
+                    LEGACY_COLUMN_NEXT, COLUMN_TASK}, null, null, null, null, COLUMN_ID + " DESC");
+            SQLiteStatement statement = db.compileStatement("INSERT INTO " + TABLE_TASKS + " (" + COLUMN_ID +
+                    ", " + COLUMN_POSITION + ", " + COLUMN_TASK + ") VALUES (?, ?, ?)");
+            try {
+                int count = cursor.getCount();
+                int[] ids = new int[count], previousIds = new int[count], nextIds = new int[count];
+
+                while (cursor.moveToNext()) {
+                    int row = cursor.getPosition();
+                    ids[row] = cursor.getInt(0);
+                    previousIds[row] = cursor.getInt(1);
+                    nextIds[row] = cursor.getInt(2);
+                }
+
+                TaskListSorter.Result result = TaskListSorter.sort(ids, previousIds, nextIds);
+                if (!result.isConsistent()) {
+                    Log.w(DataProvider.class.getSimpleName(), "Converting the broken task list" +
+                            (result.hasCycle() ? ", the chain is cyclic" : "") + ", orphaned task IDs: " +
+                            Arrays.toString(result.getOrphanIds()));
+                }
+
+                // The sorted rows go first, the orphaned ones follow in the ID order.
+                int[] order = Arrays.copyOf(result.getOrder(), count);
+                boolean[] sorted = new boolean[count];
+                for (int row : result.getOrder()) {
+                    sorted[row] = true;
+                }
+                int orphans = result.getOrder().length;
+                for (int row = 0; row < count; row++) {
+                    if (!sorted[row]) {
+                        order[orphans++] = row;
+                    }
+                }
+
+                for (int i = 0; i < count; i++) {
+                    cursor.moveToPosition(order[i]);
+
+                    statement.clearBindings();
+                    statement.bindLong(1, cursor.getLong(0));
+                    statement.bindLong(2, (count - i) * POSITION_GAP);
+                    if (!cursor.isNull(3)) {
+                        statement.bindString(3, cursor.getString(3));
+                    }
+                    statement.executeInsert();
+                }
+            } finally {
+                statement.close();
+                cursor.close();
+            }
+
+            db.execSQL("DROP TABLE " + LEGACY_TABLE_TASKS);
         }
     }
 }
@@ -0,0 +1,76 @@
+package com.nplusnapps.todolist;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Records the time between the frames in the histogram, in microseconds, and counts the frames dropped,
+ * i.e. the vsyncs missed. It runs only while started, e.g. while the list is scrolled,
+ * as every frame it waits for keeps the display pipeline awake.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class FrameMonitor implements Choreographer.FrameCallback {
+
+    private final String mMetric;
+    private final String mDroppedMetric;
+    private final long mFrameInterval;
+    private long mLastFrameTime;
+    private boolean mRunning;
+
+    /**
+     * Constructs a new instance of the monitor.
+     *
+     * @param metric The name of the histogram, the dropped frames are counted in the one with the .dropped suffix
+     * @param refreshRate The display refresh rate in frames per second
+     */
+    public FrameMonitor(String metric, float refreshRate) {
+        mMetric = metric;
+        mDroppedMetric = metric + ".dropped";
+        mFrameInterval = (long) (1e9 / (refreshRate > 0 ? refreshRate : 60));
+    }
+
+    /**
+     * Starts recording the frames. Must be called on the main thread.
+     */
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+
+        mRunning = true;
+        mLastFrameTime = 0;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops recording the frames. Must be called on the main thread.
+     */
+    public void stop() {
+        mRunning = false;
+
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+
+        if (mLastFrameTime != 0) {
+            long interval = frameTimeNanos - mLastFrameTime;
+            Metrics.record(mMetric, interval / 1000);
+
+            // A frame late by more than half the interval has missed its vsync.
+            long dropped = (interval + mFrameInterval / 2) / mFrameInterval - 1;
+            if (dropped > 0) {
+                Metrics.add(mDroppedMetric, dropped);
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
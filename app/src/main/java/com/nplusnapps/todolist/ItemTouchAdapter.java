@@ -7,6 +7,14 @@ import android.support.v7.widget.RecyclerView;
  */
 public interface ItemTouchAdapter {
 
+    /**
+     * Checks whether the item can be dragged and swiped.
+     *
+     * @param viewHolder The item view holder
+     * @return True if the item can be moved
+     */
+    boolean isItemMovable(RecyclerView.ViewHolder viewHolder);
+
     /**
      * Called when the source item has been moved to the target item position.
      *
@@ -0,0 +1,351 @@
+package com.nplusnapps.todolist;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The diff engine finds a short sequence of removals, moves, insertions and changes turning the old list
+ * into the new one, so the adapter can rebind only the affected rows.
+ * The items are matched by their IDs. The items which keep their relative order (the longest increasing
+ * subsequence of the new indexes) stay in place, every other common item is moved once.
+ * The calculation takes O(n log n).
+ * The calculation doesn't touch the adapter, so it can run on a background thread.
+ *
+ * @param <T> The item type
+ */
+public class ListDiff<T> {
+
+    private final ItemCallback<T> mCallback;
+
+    /**
+     * Constructs a new instance of the diff engine.
+     *
+     * @param callback The callback to identify and compare the items
+     */
+    public ListDiff(ItemCallback<T> callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Calculates the updates turning the old list into the new one.
+     *
+     * @param oldList The old list
+     * @param newList The new list
+     * @return The updates in the order they must be dispatched
+     */
+    public Result calculate(List<T> oldList, List<T> newList) {
+        List<Update> updates = new ArrayList<>();
+
+        Map<Long, Integer> newIndexes = new HashMap<>(newList.size() * 2);
+        for (int i = 0; i < newList.size(); i++) {
+            newIndexes.put(mCallback.getId(newList.get(i)), i);
+        }
+
+        Map<Long, T> oldItems = new HashMap<>(oldList.size() * 2);
+        long[] oldIds = new long[oldList.size()];
+        for (int i = 0; i < oldIds.length; i++) {
+            T item = oldList.get(i);
+            oldIds[i] = mCallback.getId(item);
+            oldItems.put(oldIds[i], item);
+        }
+
+        // Removes the items which are gone, starting from the bottom so the positions stay valid.
+        List<Long> workList = new ArrayList<>(oldIds.length);
+        for (int i = oldIds.length - 1; i >= 0; i--) {
+            if (!newIndexes.containsKey(oldIds[i])) {
+                addUpdate(updates, Update.TYPE_REMOVE, i, 1);
+            }
+        }
+        for (long id : oldIds) {
+            if (newIndexes.containsKey(id)) {
+                workList.add(id);
+            }
+        }
+
+        Set<Long> stableIds = findStableIds(workList, newIndexes);
+
+        // Every moved or inserted item is placed right after its predecessor in the new list, so its slot
+        // is known upfront: the items following a stable item up to the next one go right after its slot,
+        // and those above the first stable item go on top. The positions are the counts of the taken slots.
+        int newCount = newList.size();
+        boolean[] stable = new boolean[newCount];
+        for (long id : stableIds) {
+            stable[newIndexes.get(id)] = true;
+        }
+
+        int[] newSlots = new int[newCount];
+        Map<Long, Integer> oldSlots = new HashMap<>(workList.size() * 2);
+        int slotCount = 0;
+        for (int i = 0; i < newCount && !stable[i]; i++) {
+            newSlots[i] = slotCount++;
+        }
+        for (long id : workList) {
+            oldSlots.put(id, slotCount++);
+
+            if (stableIds.contains(id)) {
+                for (int i = newIndexes.get(id) + 1; i < newCount && !stable[i]; i++) {
+                    newSlots[i] = slotCount++;
+                }
+            }
+        }
+
+        SlotCounter slots = new SlotCounter(slotCount);
+        for (int slot : oldSlots.values()) {
+            slots.add(slot, 1);
+        }
+
+        for (int i = 0; i < newCount; i++) {
+            if (stable[i]) {
+                continue;
+            }
+
+            Integer oldSlot = oldSlots.get(mCallback.getId(newList.get(i)));
+            if (oldSlot == null) {
+                slots.add(newSlots[i], 1);
+                addUpdate(updates, Update.TYPE_INSERT, slots.countBefore(newSlots[i]), 1);
+            } else {
+                int fromPosition = slots.countBefore(oldSlot);
+                slots.add(oldSlot, -1);
+
+                int toPosition = slots.countBefore(newSlots[i]);
+                slots.add(newSlots[i], 1);
+                if (fromPosition != toPosition) {
+                    updates.add(new Update(Update.TYPE_MOVE, fromPosition, toPosition));
+                }
+            }
+        }
+
+        for (int i = 0; i < newList.size(); i++) {
+            T newItem = newList.get(i);
+            T oldItem = oldItems.get(mCallback.getId(newItem));
+
+            if (oldItem != null && !mCallback.areContentsTheSame(oldItem, newItem)) {
+                addUpdate(updates, Update.TYPE_CHANGE, i, 1);
+            }
+        }
+
+        return new Result(updates);
+    }
+
+    /**
+     * Finds the common items which keep their relative order, i.e. the longest increasing subsequence
+     * of their new indexes.
+     *
+     * @param workList The IDs of the common items in the old order
+     * @param newIndexes The new indexes by ID
+     * @return The IDs of the items which don't have to move
+     */
+    private static Set<Long> findStableIds(List<Long> workList, Map<Long, Integer> newIndexes) {
+        int count = workList.size();
+        int[] indexes = new int[count];
+        int[] tails = new int[count];
+        int[] predecessors = new int[count];
+        int length = 0;
+
+        for (int i = 0; i < count; i++) {
+            int index = indexes[i] = newIndexes.get(workList.get(i));
+
+            int low = 0, high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (indexes[tails[middle]] < index) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        Set<Long> stableIds = new HashSet<>(length * 2);
+        for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = predecessors[i]) {
+            stableIds.add(workList.get(i));
+        }
+
+        return stableIds;
+    }
+
+    /**
+     * Appends the update merging it into the previous one when they form a range.
+     */
+    private static void addUpdate(List<Update> updates, int type, int position, int count) {
+        Update last = updates.isEmpty() ? null : updates.get(updates.size() - 1);
+
+        if (last != null && last.mType == type) {
+            switch (type) {
+                case Update.TYPE_REMOVE:
+                    if (position + count == last.mPosition) {
+                        last.mPosition = position;
+                        last.mCount += count;
+                        return;
+                    }
+                    break;
+                case Update.TYPE_INSERT:
+                case Update.TYPE_CHANGE:
+                    if (last.mPosition + last.mCount == position) {
+                        last.mCount += count;
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        updates.add(new Update(type, position, count));
+    }
+
+    /**
+     * This interface provides the callbacks to identify and compare the items.
+     *
+     * @param <T> The item type
+     */
+    public interface ItemCallback<T> {
+
+        /**
+         * Gets the stable ID of the item.
+         *
+         * @param item The item
+         * @return The ID
+         */
+        long getId(T item);
+
+        /**
+         * Checks whether the item with the same ID has to be rebound.
+         *
+         * @param oldItem The old item
+         * @param newItem The new item
+         * @return True if the visible contents are the same
+         */
+        boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    /**
+     * The result holds the calculated updates.
+     */
+    public static class Result {
+
+        private final List<Update> mUpdates;
+
+        private Result(List<Update> updates) {
+            mUpdates = updates;
+        }
+
+        /**
+         * Gets the number of updates, 0 if the lists are the same.
+         *
+         * @return The update count
+         */
+        public int getUpdateCount() {
+            return mUpdates.size();
+        }
+
+        /**
+         * Gets the first position shifted by a removal, an insertion or a move. The items above it
+         * keep their positions.
+         *
+         * @return The position, -1 if no item has been shifted
+         */
+        public int getFirstShiftedPosition() {
+            int first = -1;
+
+            for (Update update : mUpdates) {
+                if (update.mType == Update.TYPE_CHANGE) {
+                    continue;
+                }
+
+                int position = update.mType == Update.TYPE_MOVE ?
+                        Math.min(update.mPosition, update.mCount) : update.mPosition;
+                if (first == -1 || position < first) {
+                    first = position;
+                }
+            }
+
+            return first;
+        }
+
+        /**
+         * Dispatches the updates to the adapter. The adapter must already hold the new list.
+         *
+         * @param adapter The adapter
+         */
+        public void dispatchTo(RecyclerView.Adapter adapter) {
+            for (Update update : mUpdates) {
+                switch (update.mType) {
+                    case Update.TYPE_REMOVE:
+                        adapter.notifyItemRangeRemoved(update.mPosition, update.mCount);
+                        break;
+                    case Update.TYPE_INSERT:
+                        adapter.notifyItemRangeInserted(update.mPosition, update.mCount);
+                        break;
+                    case Update.TYPE_MOVE:
+                        adapter.notifyItemMoved(update.mPosition, update.mCount);
+                        break;
+                    case Update.TYPE_CHANGE:
+                        adapter.notifyItemRangeChanged(update.mPosition, update.mCount);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The Fenwick tree counting the taken slots, so the position of a slot is found in O(log n).
+     */
+    private static class SlotCounter {
+
+        private final int[] mTree;
+
+        SlotCounter(int size) {
+            mTree = new int[size + 1];
+        }
+
+        void add(int slot, int delta) {
+            for (int i = slot + 1; i < mTree.length; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+
+        int countBefore(int slot) {
+            int count = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                count += mTree[i];
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * The single update. For the moves the position and count hold the source and target positions.
+     */
+    private static class Update {
+
+        static final int TYPE_REMOVE = 0;
+        static final int TYPE_INSERT = 1;
+        static final int TYPE_MOVE = 2;
+        static final int TYPE_CHANGE = 3;
+
+        final int mType;
+        int mPosition, mCount;
+
+        Update(int type, int position, int count) {
+            mType = type;
+            mPosition = position;
+            mCount = count;
+        }
+    }
+}
@@ -1,29 +1,46 @@
 package com.nplusnapps.todolist;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Parcelable;
 import android.support.design.widget.Snackbar;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.helper.ItemTouchHelper;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.EditText;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * The main activity holding the list of tasks.
@@ -34,21 +51,52 @@ public class MainActivity extends AppCompatActivity {
     public static final String ACTION_EDIT_TASK = "task_edited";
     public static final String ACTION_MOVE_TASK = "task_moved";
     public static final String ACTION_DELETE_TASK = "task_deleted";
+    public static final String ACTION_RESTORE_TASK = "task_restored";
 
     public static final String EXTRA_TASK = "task";
     public static final String EXTRA_TASK_ID = "task_id";
-    public static final String EXTRA_TASK_PREVIOUS = "task_previous";
-    public static final String EXTRA_TASK_NEXT = "task_next";
     public static final String EXTRA_TASK_TARGET = "task_target";
     public static final String EXTRA_TASK_DIRECTION = "task_direction";
+    public static final String EXTRA_COMMAND_ID = "command_id";
+    public static final String EXTRA_LIST_ID = "list_id";
 
     private static final String EXTRA_VIEW_STATE = "view_state";
 
+    private static final String PREF_LIST_ID = "list_id";
+
+    private static final String METRIC_LOAD_READ = "activity.load.read";
+    private static final String METRIC_LOAD_PAGED = "activity.load.paged";
+    private static final String METRIC_LOAD_DIFF = "activity.load.diff";
+    private static final String METRIC_LOAD_APPLY = "activity.load.apply";
+    private static final String METRIC_LOAD_SNAPSHOT = "activity.load.snapshot";
+    private static final String METRIC_SNAPSHOT_CURRENT = "activity.snapshot.current";
+    private static final String METRIC_SNAPSHOT_STALE = "activity.snapshot.stale";
+    private static final String METRIC_SEARCH = "activity.search";
+    private static final String METRIC_FRAME = "activity.frame";
+
+    private static final int REQUEST_EXPORT = 1;
+    private static final int REQUEST_IMPORT = 2;
+
+    private static final String EXPORT_FILE_NAME = "tasks.jsonl";
+
+    /**
+     * The task count from which the list is loaded page by page instead of all at once.
+     */
+    private static final int PAGED_LIST_THRESHOLD = 1000;
+
     private RecyclerListAdapter mRecyclerAdapter;
     private RecyclerView mRecyclerView;
     private ContentResolver mResolver;
     private ContentObserver mObserver;
+    private TaskEditBuffer mEditBuffer;
     private SparseArray<Parcelable> mSavedState;
+    private QuerySortDataTask mQueryTask;
+    private SearchTask mSearchTask;
+    private MenuItem mSearchItem;
+    private String mSearchQuery;
+    private int mListId;
+    private long mSnapshotVersion = -1;
+    private Object mFrameMonitor;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,6 +104,14 @@ public class MainActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_main);
 
+        // Starts the service with no command, so the commands left in the journal by a killed process are replayed.
+        if (savedInstanceState == null) {
+            startService(new Intent(this, BackgroundService.class));
+        }
+
+        // The last shown list is opened again.
+        mListId = getPreferences(MODE_PRIVATE).getInt(PREF_LIST_ID, DataProvider.DEFAULT_LIST_ID);
+
         mResolver = getContentResolver();
         mObserver = new ContentObserver(new Handler()) {
             @Override
@@ -65,41 +121,75 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onChange(boolean selfChange) {
-                new QuerySortDataTask().execute(DataProvider.CONTENT_URI);
+                loadTasks();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // The batch notifications are delivered with their URIs since API 16 only.
+                List<Integer> changedIds = uri != null ?
+                        DataProvider.getChangedIds(uri, DataProvider.PARAM_CHANGED) : null;
+                List<Integer> deletedIds = uri != null ?
+                        DataProvider.getChangedIds(uri, DataProvider.PARAM_DELETED) : null;
+                if (changedIds != null && deletedIds != null && mRecyclerAdapter != null &&
+                        !mRecyclerAdapter.isPaged() && mSearchQuery == null) {
+                    patchTasks(changedIds, deletedIds);
+                } else {
+                    loadTasks();
+                }
             }
         };
 
+        // Coalesces the keystrokes, so only the latest text of each task is written.
+        mEditBuffer = new TaskEditBuffer(TaskEditBuffer.DEFAULT_IDLE_INTERVAL, new TaskEditBuffer.OnFlushListener() {
+            @Override
+            public void onFlush(int taskId, String taskText) {
+                Intent intent = new Intent(MainActivity.this, BackgroundService.class);
+                intent.setAction(ACTION_EDIT_TASK).putExtra(EXTRA_TASK_ID, taskId).putExtra(EXTRA_TASK, taskText);
+
+                startCommand(intent);
+            }
+        });
+
         final View stubView = findViewById(android.R.id.empty);
 
-        mRecyclerAdapter = new RecyclerListAdapter(this, new ArrayList<Map<String, String>>());
+        mRecyclerAdapter = new RecyclerListAdapter(this, new TreeList<Task>());
         mRecyclerAdapter.setOnTaskChangedListener(new OnTaskChangedListener() {
             @Override
             public void onTaskMoved(int selectedId, int targetId, int moveDirection) {
+                // The pending edits go first, so the reload after the move doesn't bring back the old text.
+                mEditBuffer.flush();
+
                 Intent intent = new Intent(MainActivity.this, BackgroundService.class);
                 intent.setAction(ACTION_MOVE_TASK).
                         putExtra(EXTRA_TASK_ID, selectedId).
                         putExtra(EXTRA_TASK_TARGET, targetId).
                         putExtra(EXTRA_TASK_DIRECTION, moveDirection);
 
-                startService(intent);
+                startCommand(intent);
             }
 
             @Override
             public void onTaskEdited(int taskId, String taskText) {
-                Intent intent = new Intent(MainActivity.this, BackgroundService.class);
-                intent.setAction(ACTION_EDIT_TASK).putExtra(EXTRA_TASK_ID, taskId).putExtra(EXTRA_TASK, taskText);
+                mEditBuffer.put(taskId, taskText);
+            }
 
-                startService(intent);
+            @Override
+            public void onTaskEditFinished(int taskId) {
+                mEditBuffer.flush(taskId);
             }
 
             @Override
             public void onTaskDeleted(final int taskId) {
+                // The pending edit is written, so the task comes back with its latest text if the delete is undone.
+                mEditBuffer.flush();
+
                 Intent intent = new Intent(MainActivity.this, BackgroundService.class);
                 intent.setAction(ACTION_DELETE_TASK).putExtra(EXTRA_TASK_ID, taskId);
 
-                startService(intent);
+                startCommand(intent);
 
-                showSnackbar();
+                showSnackbar(taskId);
             }
 
             @Override
@@ -118,16 +208,34 @@ public class MainActivity extends AppCompatActivity {
         mRecyclerView.setAdapter(mRecyclerAdapter);
         mRecyclerView.setLayoutManager(layoutManager);
 
+        // The renumbered rows are rebound in place, the cross-fade would bind them into new views instead.
+        RecyclerView.ItemAnimator itemAnimator = mRecyclerView.getItemAnimator();
+        if (itemAnimator != null) {
+            itemAnimator.setSupportsChangeAnimations(false);
+        }
+
         ItemTouchHelper touchHelper =
                 new ItemTouchHelper(new ItemTouchHelperCallback(mRecyclerAdapter));
         touchHelper.attachToRecyclerView(mRecyclerView);
 
+        // The frames are timed while the list is scrolled, see the metrics.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameMonitor = new FrameMonitor(METRIC_FRAME, getWindowManager().getDefaultDisplay().getRefreshRate());
+        }
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                monitorFrames(newState != RecyclerView.SCROLL_STATE_IDLE);
+            }
+        });
+
         // Restores the recycler view state if there's any.
         if (savedInstanceState != null && savedInstanceState.containsKey(EXTRA_VIEW_STATE)) {
             mSavedState = savedInstanceState.getSparseParcelableArray(EXTRA_VIEW_STATE);
         }
 
-        new QuerySortDataTask().execute(DataProvider.CONTENT_URI);
+        showSnapshot();
+        loadTasks();
     }
 
     @Override
@@ -137,15 +245,29 @@ public class MainActivity extends AppCompatActivity {
         mResolver.registerContentObserver(DataProvider.CONTENT_URI, true, mObserver);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        // The process can be killed once the activity is paused. The service intents are redelivered,
+        // so the edits survive the process death after this point.
+        mEditBuffer.flush();
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
 
         mResolver.unregisterContentObserver(mObserver);
+
+        monitorFrames(false);
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
+        // The state is saved before the process can be killed, with no order guaranteed against onPause().
+        mEditBuffer.flush();
+
         SparseArray<Parcelable> recyclerState = new SparseArray<>();
 
         if (mRecyclerView != null) {
@@ -161,6 +283,42 @@ public class MainActivity extends AppCompatActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
 
+        mSearchItem = menu.findItem(R.id.action_search);
+
+        // The documents are picked through the storage access framework, which is there since API 19.
+        boolean canTransfer = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.action_export).setVisible(canTransfer);
+        menu.findItem(R.id.action_import).setVisible(canTransfer);
+
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(mSearchItem);
+        searchView.setQueryHint(getString(R.string.hint_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchTasks(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchTasks(newText);
+                return true;
+            }
+        });
+
+        MenuItemCompat.setOnActionExpandListener(mSearchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                searchTasks(null);
+                return true;
+            }
+        });
+
         return true;
     }
 
@@ -170,6 +328,15 @@ public class MainActivity extends AppCompatActivity {
             case R.id.action_about:
                 startActivity(new Intent(this, AboutActivity.class));
                 break;
+            case R.id.action_lists:
+                new QueryListsTask().execute();
+                break;
+            case R.id.action_export:
+                pickDocument(Intent.ACTION_CREATE_DOCUMENT, REQUEST_EXPORT);
+                break;
+            case R.id.action_import:
+                pickDocument(Intent.ACTION_OPEN_DOCUMENT, REQUEST_IMPORT);
+                break;
             default:
                 break;
         }
@@ -177,6 +344,45 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+            // The edits are written first, so they make it into the export.
+            mEditBuffer.flush();
+
+            switch (requestCode) {
+                case REQUEST_EXPORT:
+                    new TransferTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                            DataProvider.getTransferUri(DataProvider.EXPORT_URI, mListId), data.getData());
+                    return;
+                case REQUEST_IMPORT:
+                    new TransferTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                            data.getData(), DataProvider.getTransferUri(DataProvider.IMPORT_URI, mListId));
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Lets the user pick the document to export the tasks to or to import them from.
+     *
+     * @param action <code>ACTION_CREATE_DOCUMENT</code> or <code>ACTION_OPEN_DOCUMENT</code>
+     * @param requestCode The request code
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickDocument(String action, int requestCode) {
+        Intent intent = new Intent(action).addCategory(Intent.CATEGORY_OPENABLE).setType("*/*");
+        if (Intent.ACTION_CREATE_DOCUMENT.equals(action)) {
+            intent.putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_NAME);
+        }
+
+        startActivityForResult(intent, requestCode);
+    }
+
     /**
      * The method is invoked when the floating button is clicked.
      *
@@ -187,18 +393,183 @@ public class MainActivity extends AppCompatActivity {
             mRecyclerView.scrollToPosition(0);
         }
 
-        startService(new Intent(this, BackgroundService.class).setAction(ACTION_ADD_TASK));
+        mEditBuffer.flush();
+
+        // The new task is empty, so it wouldn't be found.
+        if (mSearchItem != null) {
+            MenuItemCompat.collapseActionView(mSearchItem);
+        }
+
+        startCommand(new Intent(this, BackgroundService.class).setAction(ACTION_ADD_TASK));
+    }
+
+    /**
+     * Sends the command to the service, tagged with a unique ID so a redelivered intent is journaled only once.
+     * The command applies to the shown list.
+     *
+     * @param intent The command intent
+     */
+    private void startCommand(Intent intent) {
+        startService(intent.putExtra(EXTRA_COMMAND_ID, UUID.randomUUID().toString()).putExtra(EXTRA_LIST_ID, mListId));
+    }
+
+    /**
+     * Shows the provided list instead of the current one and remembers it.
+     *
+     * @param listId The list ID
+     */
+    private void showList(int listId) {
+        if (listId == mListId) {
+            return;
+        }
+
+        // The pending edits belong to the tasks of the current list.
+        mEditBuffer.flush();
+
+        mListId = listId;
+        getPreferences(MODE_PRIVATE).edit().putInt(PREF_LIST_ID, mListId).apply();
+
+        if (mSearchItem != null) {
+            MenuItemCompat.collapseActionView(mSearchItem);
+        }
+
+        showSnapshot();
+        loadTasks();
     }
 
     /**
-     * Shows the snackbar message when a task is deleted.
+     * Starts or stops timing the frames.
+     *
+     * @param monitor True to start timing them
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void monitorFrames(boolean monitor) {
+        if (mFrameMonitor == null) {
+            return;
+        }
+
+        if (monitor) {
+            ((FrameMonitor) mFrameMonitor).start();
+        } else {
+            ((FrameMonitor) mFrameMonitor).stop();
+        }
+    }
+
+    /**
+     * Shows the copy of the list the service has saved, so the tasks are there from the first frame.
+     * The copy is memory-mapped, so it's read on the main thread. The list is then loaded as usual,
+     * which only checks the list version if the copy is still current.
+     */
+    private void showSnapshot() {
+        mSnapshotVersion = -1;
+
+        long startTime = Metrics.startTimer();
+
+        TaskSnapshot snapshot = TaskSnapshot.open(TaskSnapshot.getFile(getCacheDir(), mListId));
+        if (snapshot != null && snapshot.getListId() == mListId) {
+            mRecyclerAdapter.setItems(snapshot.getTasks(), null, mRecyclerAdapter.getVersion());
+            mSnapshotVersion = snapshot.getVersion();
+
+            Metrics.stopTimer(METRIC_LOAD_SNAPSHOT, startTime);
+        }
+    }
+
+    /**
+     * Asks for the name of the new list and shows the list once it's created.
+     */
+    private void showNewListDialog() {
+        final EditText nameEdit = new EditText(this);
+        nameEdit.setSingleLine();
+
+        new AlertDialog.Builder(this).setTitle(R.string.action_new_list).setView(nameEdit).
+                setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        new CreateListTask().execute(nameEdit.getText().toString().trim());
+                    }
+                }).
+                setNegativeButton(android.R.string.cancel, null).show();
+    }
+
+    /**
+     * Starts loading the tasks. The pending load is cancelled, as its result would be outdated.
+     */
+    private void loadTasks() {
+        if (mSearchQuery != null) {
+            searchTasks(mSearchQuery);
+            return;
+        }
+
+        if (mQueryTask != null) {
+            mQueryTask.cancel(false);
+        }
+
+        mQueryTask = new QuerySortDataTask();
+        mQueryTask.execute(DataProvider.getOrderedUri(mListId));
+    }
+
+    /**
+     * Shows the tasks matching the query instead of the whole list. The running search is cancelled,
+     * and the new one runs in parallel rather than waiting for it, so typing is never held up by a stale query.
+     *
+     * @param query The words to look for, empty or null to show the whole list again
      */
-    private void showSnackbar() {
+    private void searchTasks(String query) {
+        if (mSearchTask != null) {
+            mSearchTask.cancelQuery();
+            mSearchTask = null;
+        }
+
+        String searchQuery = query != null && !query.trim().isEmpty() ? query.trim() : null;
+        boolean searchFinished = mSearchQuery != null && searchQuery == null;
+        mSearchQuery = searchQuery;
+
+        if (mSearchQuery != null) {
+            // The pending load would replace the results with the whole list.
+            if (mQueryTask != null) {
+                mQueryTask.cancel(false);
+                mQueryTask = null;
+            }
+
+            mSearchTask = new SearchTask();
+            mSearchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mSearchQuery);
+        } else if (searchFinished) {
+            loadTasks();
+        }
+    }
+
+    /**
+     * Patches the loaded list with the changed tasks instead of reloading it.
+     * The deleted tasks are removed right away, the others are read back with a single query.
+     *
+     * @param changedIds The IDs of the tasks to read again
+     * @param deletedIds The IDs of the deleted tasks
+     */
+    private void patchTasks(List<Integer> changedIds, List<Integer> deletedIds) {
+        for (int taskId : deletedIds) {
+            mRecyclerAdapter.removeTask(taskId);
+        }
+
+        if (!changedIds.isEmpty()) {
+            new QueryTasksTask().execute(changedIds.toArray(new Integer[changedIds.size()]));
+        }
+    }
+
+    /**
+     * Shows the snackbar message when a task is deleted. The deleted task is kept as a tombstone for a while,
+     * so the undo only clears its deletion time and the task comes back in place.
+     *
+     * @param taskId The deleted task ID
+     */
+    private void showSnackbar(final int taskId) {
         final Snackbar snackbar = Snackbar.make(mRecyclerView, getString(R.string.snackbar_task_deleted), Snackbar.LENGTH_LONG);
-        snackbar.setAction(getString(R.string.action_dismiss), new View.OnClickListener() {
+        snackbar.setAction(getString(R.string.action_undo), new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                snackbar.dismiss();
+                Intent intent = new Intent(MainActivity.this, BackgroundService.class);
+                intent.setAction(ACTION_RESTORE_TASK).putExtra(EXTRA_TASK_ID, taskId);
+
+                startCommand(intent);
             }
         });
         snackbar.show();
@@ -217,23 +588,122 @@ public class MainActivity extends AppCompatActivity {
     /**
      * This task handles the expensive data query and sort operations on a background thread.
      */
-    public class QuerySortDataTask extends AsyncTask<Uri, Void, List<Map<String, String>>> {
+    public class QuerySortDataTask extends AsyncTask<Uri, Void, List<Task>> {
+
+        private List<Task> mOldList;
+        private ListDiff.Result mDiff;
+        private int mVersion, mFocusedId, mFirstVisiblePosition;
+        private long mShownVersion, mListVersion = -1;
+        private boolean mCurrent;
+
+        @Override
+        protected void onPreExecute() {
+            mShownVersion = mSnapshotVersion;
+
+            if (mRecyclerAdapter != null && !mRecyclerAdapter.isPaged()) {
+                mOldList = mRecyclerAdapter.getItemsSnapshot();
+                mVersion = mRecyclerAdapter.getVersion();
+                mFocusedId = mRecyclerAdapter.getFocusedId();
+            }
+
+            if (mRecyclerView != null) {
+                mFirstVisiblePosition = Math.max(((LinearLayoutManager)
+                        mRecyclerView.getLayoutManager()).findFirstVisibleItemPosition(), 0);
+            }
+        }
 
         @Override
-        protected List<Map<String, String>> doInBackground(Uri... params) {
-            List<Map<String, String>> tempList = new ArrayList<>();
+        protected List<Task> doInBackground(Uri... params) {
+            long startTime = Metrics.startTimer();
+
+            // The long lists are paged, only the window around the first visible task is read right away.
+            int taskCount = queryTaskCount();
+
+            // The shown copy of the list is what would be read, so the tasks aren't read at all.
+            if (mShownVersion != -1) {
+                mCurrent = mListVersion == mShownVersion && taskCount < PAGED_LIST_THRESHOLD;
+                Metrics.increment(mCurrent ? METRIC_SNAPSHOT_CURRENT : METRIC_SNAPSHOT_STALE);
+
+                if (mCurrent) {
+                    return null;
+                }
+            }
+
+            if (taskCount >= PAGED_LIST_THRESHOLD) {
+                PagedTaskList pagedList = new PagedTaskList(getContentResolver(), mListId,
+                        PagedTaskList.DEFAULT_PAGE_SIZE, PagedTaskList.DEFAULT_MAX_PAGES);
+
+                // The list is read in full if its IDs can't be read.
+                if (pagedList.loadIds() && pagedList.size() > 0) {
+                    pagedList.preload(Math.min(mFirstVisiblePosition, pagedList.size() - 1));
+
+                    Metrics.stopTimer(METRIC_LOAD_PAGED, startTime);
+
+                    return pagedList;
+                }
+            }
 
-            // Yes, this is not the most elegant way of sorting the doubly linked cursor data, but it works.
-            Cursor cursor = MainActivity.this.getContentResolver().query(params[0], null, null, null, null);
+            List<Task> sortedList = new ArrayList<>();
+
+            // The provider returns the tasks already in the list order.
+            Cursor cursor = MainActivity.this.getContentResolver().query(params[0], new String[] {
+                    DataProvider.COLUMN_ID, DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK}, null, null, null);
             try {
+                int idIndex = cursor.getColumnIndex(DataProvider.COLUMN_ID);
+                int positionIndex = cursor.getColumnIndex(DataProvider.COLUMN_POSITION);
+                int taskIndex = cursor.getColumnIndex(DataProvider.COLUMN_TASK);
+
                 while (cursor.moveToNext()) {
-                    Map<String, String> task = new HashMap<>();
-                    task.put(EXTRA_TASK_ID, cursor.getString(cursor.getColumnIndex(DataProvider.COLUMN_ID)));
-                    task.put(EXTRA_TASK, cursor.getString(cursor.getColumnIndex(DataProvider.COLUMN_TASK)));
-                    task.put(EXTRA_TASK_PREVIOUS, cursor.getString(cursor.getColumnIndex(DataProvider.COLUMN_PREVIOUS)));
-                    task.put(EXTRA_TASK_NEXT, cursor.getString(cursor.getColumnIndex(DataProvider.COLUMN_NEXT)));
+                    sortedList.add(new Task(cursor.getInt(idIndex),
+                            cursor.getLong(positionIndex), cursor.getString(taskIndex)));
+                }
+            } catch (Exception e) {
+                Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            Metrics.stopTimer(METRIC_LOAD_READ, startTime);
+
+            if (mOldList != null) {
+                long diffStartTime = Metrics.startTimer();
+
+                mDiff = new ListDiff<>(new ListDiff.ItemCallback<Task>() {
+                    @Override
+                    public long getId(Task item) {
+                        return item.getId();
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(Task oldItem, Task newItem) {
+                        // The task being edited keeps its text, so it's never rebound.
+                        return newItem.getId() == mFocusedId || oldItem.hasSameText(newItem);
+                    }
+                }).calculate(mOldList, sortedList);
+
+                Metrics.stopTimer(METRIC_LOAD_DIFF, diffStartTime);
+            }
+
+            return sortedList;
+        }
 
-                    tempList.add(task);
+        /**
+         * Reads the task count the list row keeps, so the tasks are never counted one by one.
+         * The list version is read along.
+         *
+         * @return The task count
+         */
+        private int queryTaskCount() {
+            int taskCount = 0;
+
+            Cursor cursor = getContentResolver().query(DataProvider.getListUri(mListId),
+                    new String[] {DataProvider.COLUMN_TASK_COUNT, DataProvider.COLUMN_VERSION}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    taskCount = cursor.getInt(0);
+                    mListVersion = cursor.getLong(1);
                 }
             } catch (Exception e) {
                 Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
@@ -243,53 +713,298 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
 
-            List<Map<String, String>> sortedList = new ArrayList<>();
+            return taskCount;
+        }
 
-            int previousId;
-            for (Map<String, String> task : tempList) {
-                if (Integer.valueOf(task.get(EXTRA_TASK_NEXT)) == 0) {
-                    tempList.remove(task);
-                    sortedList.add(task);
+        @Override
+        protected void onPostExecute(List<Task> result) {
+            long startTime = Metrics.startTimer();
 
-                    previousId = Integer.valueOf(task.get(EXTRA_TASK_PREVIOUS));
+            mSnapshotVersion = -1;
 
-                    int currentPos;
-                    while (!tempList.isEmpty()) {
-                        for (Map<String, String> nextTask : tempList) {
-                            currentPos = tempList.indexOf(nextTask);
+            if (mRecyclerAdapter != null && !mCurrent) {
+                if (result instanceof PagedTaskList) {
+                    mRecyclerAdapter.setPagedItems((PagedTaskList) result);
+                } else {
+                    mRecyclerAdapter.setItems(result, mDiff, mVersion);
+                }
+            }
 
-                            if (Integer.valueOf(nextTask.get(EXTRA_TASK_ID)) == previousId) {
-                                tempList.remove(nextTask);
-                                sortedList.add(nextTask);
+            mQueryTask = null;
 
-                                previousId = Integer.valueOf(nextTask.get(EXTRA_TASK_PREVIOUS));
+            Metrics.stopTimer(METRIC_LOAD_APPLY, startTime);
 
-                                break;
-                            }
+            if (mRecyclerView != null && mSavedState != null) {
+                mRecyclerView.restoreHierarchyState(mSavedState);
+                mSavedState = null;
+            }
+        }
+    }
+
+    /**
+     * This task looks the tasks up on a background thread. The query itself is cancelled since API 16.
+     */
+    public class SearchTask extends AsyncTask<String, Void, List<Task>> {
+
+        private final Object mCancellationSignal;
+        private int mVersion;
+
+        public SearchTask() {
+            mCancellationSignal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+                    new CancellationSignal() : null;
+        }
+
+        /**
+         * Cancels the task and its running query, the result is never delivered.
+         */
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        public void cancelQuery() {
+            cancel(false);
+
+            if (mCancellationSignal != null) {
+                ((CancellationSignal) mCancellationSignal).cancel();
+            }
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mVersion = mRecyclerAdapter.getVersion();
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        @Override
+        protected List<Task> doInBackground(String... params) {
+            long startTime = Metrics.startTimer();
+
+            Uri uri = DataProvider.getSearchUri(mListId, params[0], DataProvider.DEFAULT_SEARCH_LIMIT);
+            String[] projection = {DataProvider.COLUMN_ID, DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK};
+
+            List<Task> tasks = new ArrayList<>();
+
+            Cursor cursor = null;
+            try {
+                cursor = mCancellationSignal != null ?
+                        getContentResolver().query(uri, projection, null, null, null,
+                                (CancellationSignal) mCancellationSignal) :
+                        getContentResolver().query(uri, projection, null, null, null);
+
+                while (cursor.moveToNext() && !isCancelled()) {
+                    tasks.add(new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2)));
+                }
+            } catch (Exception e) {
+                // A cancelled query throws, it's expected.
+                if (!isCancelled()) {
+                    Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            Metrics.stopTimer(METRIC_SEARCH, startTime);
+
+            return tasks;
+        }
+
+        @Override
+        protected void onPostExecute(List<Task> result) {
+            if (mRecyclerAdapter != null) {
+                mRecyclerAdapter.setItems(result, null, mVersion);
+            }
+
+            if (mSearchTask == this) {
+                mSearchTask = null;
+            }
+        }
+    }
+
+    /**
+     * This task copies the tasks between the provider and the document on a background thread.
+     * The data is streamed through a small buffer, so any list size can be copied. The imported tasks
+     * are shown once the provider notifies about them.
+     */
+    public class TransferTask extends AsyncTask<Uri, Void, Boolean> {
+
+        private static final int BUFFER_SIZE = 8192;
+
+        @Override
+        protected Boolean doInBackground(Uri... params) {
+            InputStream input = null;
+            OutputStream output = null;
+            try {
+                input = getContentResolver().openInputStream(params[0]);
+                output = getContentResolver().openOutputStream(params[1]);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
 
-                            if (currentPos == tempList.size() - 1) {
-                                // Quits the loop if there's no valid previous ID
-                                break;
+                return true;
+            } catch (Exception e) {
+                Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+
+                return false;
+            } finally {
+                closeQuietly(input);
+                closeQuietly(output);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean result) {
+            if (!result && mRecyclerView != null) {
+                Snackbar.make(mRecyclerView, getString(R.string.snackbar_transfer_failed), Snackbar.LENGTH_LONG).show();
+            }
+        }
+
+        private void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * This task reads the lists on a background thread and lets the user pick the one to show
+     * or create a new one.
+     */
+    public class QueryListsTask extends AsyncTask<Void, Void, Cursor> {
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            try {
+                Cursor cursor = getContentResolver().query(DataProvider.LISTS_URI,
+                        new String[] {DataProvider.COLUMN_ID, DataProvider.COLUMN_NAME}, null, null, null);
+                if (cursor != null) {
+                    // Fills the window while on the background thread.
+                    cursor.getCount();
+                }
+
+                return cursor;
+            } catch (Exception e) {
+                Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Cursor result) {
+            if (result == null) {
+                return;
+            }
+
+            final int[] listIds = new int[result.getCount()];
+            String[] names = new String[result.getCount() + 1];
+            try {
+                while (result.moveToNext()) {
+                    listIds[result.getPosition()] = result.getInt(0);
+                    names[result.getPosition()] = result.isNull(1) ?
+                            getString(R.string.list_default) : result.getString(1);
+                }
+            } finally {
+                result.close();
+            }
+            names[listIds.length] = getString(R.string.action_new_list);
+
+            new AlertDialog.Builder(MainActivity.this).setTitle(R.string.action_lists).
+                    setItems(names, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            if (which < listIds.length) {
+                                showList(listIds[which]);
+                            } else {
+                                showNewListDialog();
                             }
                         }
-                    }
+                    }).show();
+        }
+    }
 
-                    break;
+    /**
+     * This task creates the list on a background thread and then shows it.
+     */
+    public class CreateListTask extends AsyncTask<String, Void, Uri> {
+
+        @Override
+        protected Uri doInBackground(String... params) {
+            ContentValues values = new ContentValues();
+            values.put(DataProvider.COLUMN_NAME, params[0]);
+
+            try {
+                return getContentResolver().insert(DataProvider.LISTS_URI, values);
+            } catch (Exception e) {
+                Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Uri result) {
+            if (result != null) {
+                showList((int) ContentUris.parseId(result));
+            }
+        }
+    }
+
+    /**
+     * This task reads the changed tasks with a single query on a background thread and puts them in place.
+     * The tasks of the other lists are left out.
+     */
+    public class QueryTasksTask extends AsyncTask<Integer, Void, List<Task>> {
+
+        private List<Integer> mIds;
+
+        @Override
+        protected List<Task> doInBackground(Integer... params) {
+            mIds = Arrays.asList(params);
+
+            List<Task> tasks = new ArrayList<>(mIds.size());
+
+            Cursor cursor = null;
+            try {
+                cursor = getContentResolver().query(DataProvider.CONTENT_URI, new String[] {
+                        DataProvider.COLUMN_ID, DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK},
+                        DataProvider.COLUMN_ID + " IN (" + TextUtils.join(",", mIds) + ") AND " +
+                                DataProvider.COLUMN_DELETED + " = 0 AND " + DataProvider.COLUMN_LIST_ID + " = " +
+                                mListId, null, null);
+                while (cursor.moveToNext()) {
+                    tasks.add(new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2)));
+                }
+            } catch (Exception e) {
+                Log.e(MainActivity.class.getSimpleName(), e.getMessage(), e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
             }
 
-            return sortedList;
+            return tasks;
         }
 
         @Override
-        protected void onPostExecute(List<Map<String, String>> result) {
-            if (mRecyclerAdapter != null) {
-                mRecyclerAdapter.addItems(result, true);
+        protected void onPostExecute(List<Task> result) {
+            if (mRecyclerAdapter == null || mRecyclerAdapter.isPaged()) {
+                return;
             }
 
-            if (mRecyclerView != null && mSavedState != null) {
-                mRecyclerView.restoreHierarchyState(mSavedState);
-                mSavedState = null;
+            Set<Integer> missingIds = new HashSet<>(mIds);
+            for (Task task : result) {
+                mRecyclerAdapter.applyTask(task);
+                missingIds.remove(task.getId());
+            }
+
+            // The tasks may have been deleted or moved to another list in the meantime.
+            for (int taskId : missingIds) {
+                mRecyclerAdapter.removeTask(taskId);
             }
         }
     }
@@ -0,0 +1,173 @@
+package com.nplusnapps.todolist;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The lightweight in-process registry of the counters and the histograms, e.g. the latencies of the
+ * provider calls or the service batches. The values are kept since the process has started.
+ * A histogram keeps its values in the power of two buckets, so the percentiles are approximate, they're
+ * reported as the upper bound of the bucket. All the methods are thread safe.
+ */
+public final class Metrics {
+
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_SUM = "sum";
+    public static final String COLUMN_P50 = "p50";
+    public static final String COLUMN_P99 = "p99";
+    public static final String COLUMN_MAX = "max";
+
+    private static final String[] COLUMNS =
+            {COLUMN_NAME, COLUMN_COUNT, COLUMN_SUM, COLUMN_P50, COLUMN_P99, COLUMN_MAX};
+
+    private static final Map<String, long[]> sCounters = new TreeMap<>();
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+
+    private Metrics() {
+
+    }
+
+    /**
+     * Adds one to the counter.
+     *
+     * @param name The counter name
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds the provided value to the counter.
+     *
+     * @param name The counter name
+     * @param delta The value to add
+     */
+    public static synchronized void add(String name, long delta) {
+        long[] counter = sCounters.get(name);
+        if (counter == null) {
+            counter = new long[1];
+            sCounters.put(name, counter);
+        }
+
+        counter[0] += delta;
+    }
+
+    /**
+     * Records the value in the histogram.
+     *
+     * @param name The histogram name
+     * @param value The value, the negative ones are recorded as 0
+     */
+    public static synchronized void record(String name, long value) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            sHistograms.put(name, histogram);
+        }
+
+        histogram.record(Math.max(value, 0));
+    }
+
+    /**
+     * Starts the timer.
+     *
+     * @return The start time to pass to {@link #stopTimer(String, long)}
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the timer has been started in the histogram, in microseconds.
+     *
+     * @param name The histogram name
+     * @param startTime The start time
+     */
+    public static void stopTimer(String name, long startTime) {
+        record(name, (System.nanoTime() - startTime) / 1000);
+    }
+
+    /**
+     * Builds the cursor with a row per counter and histogram. The counters only have the count column set.
+     *
+     * @return The cursor
+     */
+    public static synchronized Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, sCounters.size() + sHistograms.size());
+
+        for (Map.Entry<String, long[]> entry : sCounters.entrySet()) {
+            cursor.addRow(new Object[] {entry.getKey(), entry.getValue()[0], null, null, null, null});
+        }
+
+        for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            cursor.addRow(new Object[] {entry.getKey(), histogram.mCount, histogram.mSum,
+                    histogram.getPercentile(0.5), histogram.getPercentile(0.99), histogram.mMax});
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Prints all the counters and histograms, e.g. to the service dump.
+     *
+     * @param writer The writer
+     */
+    public static synchronized void dump(PrintWriter writer) {
+        for (Map.Entry<String, long[]> entry : sCounters.entrySet()) {
+            writer.println(entry.getKey() + ": " + entry.getValue()[0]);
+        }
+
+        for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.println(entry.getKey() + ": count=" + histogram.mCount + " sum=" + histogram.mSum +
+                    " p50<=" + histogram.getPercentile(0.5) + " p99<=" + histogram.getPercentile(0.99) +
+                    " max=" + histogram.mMax);
+        }
+    }
+
+    /**
+     * Drops all the values.
+     */
+    public static synchronized void reset() {
+        sCounters.clear();
+        sHistograms.clear();
+    }
+
+    /**
+     * The histogram counting the values in the power of two buckets, the bucket i holds the values
+     * below 2^i which don't fit in the previous one.
+     */
+    private static class Histogram {
+
+        private final long[] mBuckets = new long[64];
+        private long mCount, mSum, mMax;
+
+        void record(long value) {
+            mBuckets[64 - Long.numberOfLeadingZeros(value)]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        long getPercentile(double percentile) {
+            long rank = Math.max((long) Math.ceil(percentile * mCount), 1);
+
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    // The upper bound can't be greater than the largest value recorded.
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, mMax);
+                }
+            }
+
+            return mMax;
+        }
+    }
+}
@@ -11,7 +11,7 @@ public interface OnTaskChangedListener {
      * @param selectedId The selected task ID
      * @param targetId The target task ID
      * @param moveDirection The direction in which to move the task
-     *                      <code>ItemTouchHelper.UP</code> or <code>ItemTouchHelper.DOWN</code>
+     *                      {@link DataProvider#DIRECTION_UP} or {@link DataProvider#DIRECTION_DOWN}
      */
     void onTaskMoved(int selectedId, int targetId, int moveDirection);
 
@@ -23,6 +23,13 @@ public interface OnTaskChangedListener {
      */
     void onTaskEdited(int editedId, String taskText);
 
+    /**
+     * Called when the task input has lost focus.
+     *
+     * @param editedId The edited task ID
+     */
+    void onTaskEditFinished(int editedId);
+
     /**
      * Called when the task has been deleted.
      *
@@ -0,0 +1,406 @@
+package com.nplusnapps.todolist;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The list serves the ordered tasks page by page, keeping only a bounded number of pages in memory.
+ * A missing item is returned as null and its page is loaded in the background, the listener is notified
+ * once the page is ready. The IDs of all the tasks are kept, see {@link #loadIds()}, so a missing item
+ * still has the ID of its task. The least recently used pages are evicted when the cache is full.
+ * A page following a cached one is read by the key of its last row, any other page is read by the offset.
+ * All the methods must be called on the main thread.
+ */
+public class PagedTaskList extends AbstractList<Task> {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final int mListId;
+    private final int mPageSize;
+    private final LinkedHashMap<Integer, List<Task>> mPages;
+    private final Set<Integer> mLoadingPages;
+    private OnPageLoadedListener mPageListener;
+    private int[] mIds = new int[0];
+    private int mSize, mGeneration;
+
+    /**
+     * Constructs a new instance of the list. The list is empty until its IDs are loaded.
+     *
+     * @param resolver The content resolver
+     * @param listId The list ID
+     * @param pageSize The number of tasks per page
+     * @param maxPages The maximum number of pages kept in memory
+     */
+    public PagedTaskList(ContentResolver resolver, int listId, int pageSize, final int maxPages) {
+        mResolver = resolver;
+        mHandler = new Handler(Looper.getMainLooper());
+        mListId = listId;
+        mPageSize = pageSize;
+        mLoadingPages = new HashSet<>();
+
+        mPages = new LinkedHashMap<Integer, List<Task>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Task>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Reads the IDs of all the tasks in the list order on the calling thread, the list takes their count
+     * as its size. The IDs take a fraction of the memory of the tasks, and let the adapter identify
+     * the rows whose page hasn't been loaded yet.
+     *
+     * @return True if the IDs have been read
+     */
+    public boolean loadIds() {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(DataProvider.getOrderedUri(mListId),
+                    new String[] {DataProvider.COLUMN_ID}, null, null, null);
+
+            int[] ids = new int[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getInt(0);
+            }
+
+            mIds = ids;
+            mSize = ids.length;
+
+            return true;
+        } catch (Exception e) {
+            Log.e(PagedTaskList.class.getSimpleName(), e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the ID of the task at the provided position, whether its page is loaded or not.
+     *
+     * @param position The item position
+     * @return The task ID
+     */
+    public int getId(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + mSize);
+        }
+
+        return mIds[position];
+    }
+
+    /**
+     * Reads the page holding the item at the provided position on the calling thread,
+     * e.g. to have the first screen ready before the list is shown.
+     *
+     * @param position The item position
+     */
+    public void preload(int position) {
+        int page = position / mPageSize;
+
+        List<Task> tasks = queryPage(mResolver, getPageUri(page));
+        if (tasks != null) {
+            mPages.put(page, tasks);
+        }
+    }
+
+    /**
+     * Sets the listener to be notified when a page has been loaded.
+     *
+     * @param listener The listener
+     */
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        mPageListener = listener;
+    }
+
+    @Override
+    public Task get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + mSize);
+        }
+
+        int page = position / mPageSize;
+
+        List<Task> tasks = mPages.get(page);
+        if (tasks == null) {
+            loadPage(page);
+            return null;
+        }
+
+        int index = position - page * mPageSize;
+        if (index >= tasks.size()) {
+            // The page has been shortened by a removal, the cached tasks are served until it's reloaded.
+            loadPage(page);
+            return null;
+        }
+
+        return tasks.get(index);
+    }
+
+    @Override
+    public Task set(int position, Task task) {
+        if (task != null && position >= 0 && position < mSize) {
+            mIds[position] = task.getId();
+        }
+
+        List<Task> tasks = mPages.get(position / mPageSize);
+        int index = position % mPageSize;
+
+        return tasks != null && index < tasks.size() ? tasks.set(index, task) : null;
+    }
+
+    @Override
+    public void add(int position, Task task) {
+        if (position < 0 || position > mSize) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + mSize);
+        }
+
+        int page = position / mPageSize;
+
+        List<Task> tasks = mPages.get(page);
+        int index = position - page * mPageSize;
+        if (tasks != null && index <= tasks.size()) {
+            tasks.add(index, task);
+
+            // Pushes the overflowing tasks down through the following cached pages.
+            while (tasks.size() > mPageSize) {
+                Task overflow = tasks.remove(tasks.size() - 1);
+
+                tasks = mPages.get(page + 1);
+                if (tasks == null) {
+                    break;
+                }
+
+                tasks.add(0, overflow);
+                page++;
+            }
+        }
+
+        if (mSize == mIds.length) {
+            mIds = Arrays.copyOf(mIds, Math.max(mSize * 3 / 2, mSize + 1));
+        }
+        System.arraycopy(mIds, position, mIds, position + 1, mSize - position);
+        mIds[position] = task.getId();
+
+        mSize++;
+        dropPagesAfter(page);
+    }
+
+    @Override
+    public Task remove(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + mSize);
+        }
+
+        int page = position / mPageSize;
+
+        Task task = null;
+        List<Task> tasks = mPages.get(page);
+        int index = position - page * mPageSize;
+        if (tasks != null && index < tasks.size()) {
+            task = tasks.remove(index);
+
+            // Pulls the tasks up from the following cached pages.
+            List<Task> nextTasks;
+            while ((nextTasks = mPages.get(page + 1)) != null && !nextTasks.isEmpty()) {
+                tasks.add(nextTasks.remove(0));
+
+                tasks = nextTasks;
+                page++;
+            }
+        }
+
+        System.arraycopy(mIds, position + 1, mIds, position, mSize - position - 1);
+
+        mSize--;
+        dropPagesAfter(page);
+
+        return task;
+    }
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        invalidate();
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Iterator<Task> iterator() {
+        // Iterates over the cached tasks only, so no page is loaded on the way.
+        List<Task> tasks = new ArrayList<>();
+        for (List<Task> page : mPages.values()) {
+            tasks.addAll(page);
+        }
+
+        return tasks.iterator();
+    }
+
+    /**
+     * Finds the position of the task with the provided ID without loading any page.
+     * The task itself may be waiting for its page.
+     *
+     * @param id The task ID
+     * @return The position, -1 if there's no such task in the list
+     */
+    public int indexOfId(int id) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] == id) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Drops all the cached pages, e.g. when the data has been changed.
+     */
+    public void invalidate() {
+        mGeneration++;
+        mPages.clear();
+        mLoadingPages.clear();
+    }
+
+    /**
+     * Drops the pages following the provided one, as their boundaries have shifted.
+     * The pending loads are dropped as well.
+     */
+    private void dropPagesAfter(int page) {
+        mGeneration++;
+        mLoadingPages.clear();
+
+        List<Integer> shiftedPages = new ArrayList<>();
+        for (Integer key : mPages.keySet()) {
+            if (key > page) {
+                shiftedPages.add(key);
+            }
+        }
+
+        for (Integer key : shiftedPages) {
+            mPages.remove(key);
+        }
+    }
+
+    /**
+     * Starts loading the page in the background unless it's being loaded already.
+     */
+    private void loadPage(final int page) {
+        final int generation = mGeneration;
+        if (!mLoadingPages.add(page)) {
+            return;
+        }
+
+        final Uri uri = getPageUri(page);
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Task> tasks = queryPage(mResolver, uri);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The result is dropped if the list has been modified in the meantime.
+                        if (generation != mGeneration || tasks == null) {
+                            return;
+                        }
+
+                        mLoadingPages.remove(page);
+                        mPages.put(page, tasks);
+
+                        if (mPageListener != null) {
+                            mPageListener.onPageLoaded(page * mPageSize, tasks.size());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Builds the page URI using the key of the previous page's last row if it's cached.
+     */
+    private Uri getPageUri(int page) {
+        List<Task> previousTasks = page > 0 ? mPages.get(page - 1) : null;
+
+        if (previousTasks != null && previousTasks.size() == mPageSize) {
+            return DataProvider.getPageUri(mListId, previousTasks.get(mPageSize - 1).getPosition(), mPageSize);
+        }
+
+        return DataProvider.getPageUri(mListId, page * mPageSize, mPageSize);
+    }
+
+    /**
+     * Reads the page of tasks.
+     *
+     * @param resolver The content resolver
+     * @param uri The page URI
+     * @return The tasks, or null if the query has failed
+     */
+    private static List<Task> queryPage(ContentResolver resolver, Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, new String[] {DataProvider.COLUMN_ID,
+                    DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK}, null, null, null);
+
+            List<Task> tasks = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                tasks.add(new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2)));
+            }
+
+            return tasks;
+        } catch (Exception e) {
+            Log.e(PagedTaskList.class.getSimpleName(), e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * This interface provides the callback to notify a page has been loaded.
+     */
+    public interface OnPageLoadedListener {
+
+        /**
+         * Called when the page has been loaded and its items can be rebound.
+         *
+         * @param positionStart The position of the first item of the page
+         * @param itemCount The number of items in the page
+         */
+        void onPageLoaded(int positionStart, int itemCount);
+    }
+}
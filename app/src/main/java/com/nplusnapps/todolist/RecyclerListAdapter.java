@@ -1,8 +1,8 @@
 package com.nplusnapps.todolist;
 
 import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.support.v7.widget.helper.ItemTouchHelper;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
@@ -12,31 +12,66 @@ import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The recycler adapter manages the data stored in a list.
  */
 public class RecyclerListAdapter extends RecyclerView.Adapter<RecyclerListAdapter.ItemViewHolder> implements ItemTouchAdapter {
 
-    private Context mContext;
-    private List<Map<String, String>> mItemsList;
+    /**
+     * The payload of the rows which have only been renumbered, they're bound without touching the task text.
+     */
+    private static final Object PAYLOAD_POSITION = new Object();
+
+    // The binds are counted per the operation which has caused them, e.g. adapter.bind.remove.position.
+    private static final String OPERATION_LOAD = "load";
+    private static final String OPERATION_SCROLL = "scroll";
+    private static final String OPERATION_DISMISS = "dismiss";
+    private static final String OPERATION_DRAG = "drag";
+    private static final String OPERATION_APPLY = "apply";
+    private static final String OPERATION_REMOVE = "remove";
+
+    private static final String METRIC_OPERATION = "adapter.operation.";
+    private static final String METRIC_BIND_COUNT = "adapter.bind.";
+    private static final String METRIC_BIND = "adapter.bind";
+    private static final String METRIC_TEXT_HIT = "adapter.text.hit";
+    private static final String METRIC_TEXT_MISS = "adapter.text.miss";
+
+    private List<Task> mItemsList;
+    private TaskTextCache mTextCache;
+    private RecyclerView mRecyclerView;
+    private RecyclerView.OnScrollListener mScrollListener;
     private TextWatcher mTextWatcher;
     private OnTaskChangedListener mTaskListener;
     private View.OnFocusChangeListener mFocusListener;
     private int mSelectedId, mTargetId, mStartPosition, mEndPosition, mMoveDirection, mFocusedViewTag;
+    private int mVersion, mFocusedPosition, mPrefetchPosition = -1;
+    private String mOperation = OPERATION_LOAD;
 
     /**
      * Constructs a new instance of the adapter.
-     * If the data is not available yet, an empty list must be provided.
+     * If the data is not available yet, an empty list must be provided. The items are moved and removed
+     * by their positions, so the list should do it without shifting them, e.g. {@link TreeList}.
      *
      * @param context The context
      * @param list The list
      */
-    public RecyclerListAdapter(Context context, List<Map<String, String>> list) {
-        mContext = context;
+    public RecyclerListAdapter(Context context, List<Task> list) {
         mItemsList = list;
+        mTextCache = new TaskTextCache(context.getResources());
+
+        // The rows keep their views across the moves and reloads, the tasks are identified by their IDs.
+        setHasStableIds(true);
+
+        // Prepares the rows ahead of the scroll once it has moved by half the prefetched margin.
+        mScrollListener = new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetchRows(false);
+            }
+        };
 
         // Notifies the provided task listener when the text is changed.
         mTextWatcher = new TextWatcher() {
@@ -58,16 +93,27 @@ public class RecyclerListAdapter extends RecyclerView.Adapter<RecyclerListAdapte
 
                 // Invokes the task listener only if the input is active and the text has been changed.
                 if (mFocusedViewTag != 0 && !TextUtils.equals(textBefore, textAfter)) {
+                    // Keeps the item up to date, so a reload doesn't take the text for a change.
+                    int position = findPosition(mFocusedViewTag);
+                    Task task = position != -1 ? mItemsList.get(position) : null;
+                    if (task != null) {
+                        mItemsList.set(position, task.withText(textAfter));
+                    }
+
                     mTaskListener.onTaskEdited(mFocusedViewTag, s.toString());
                 }
             }
         };
 
-        // Updates the focused view tag.
+        // Updates the focused view tag and notifies the task listener when the input is left.
         mFocusListener = new View.OnFocusChangeListener() {
             @Override
             public void onFocusChange(View v, boolean hasFocus) {
                 mFocusedViewTag = hasFocus ? (int) v.getTag() : 0;
+
+                if (!hasFocus && mTaskListener != null) {
+                    mTaskListener.onTaskEditFinished((int) v.getTag());
+                }
             }
         };
     }
@@ -75,42 +121,105 @@ public class RecyclerListAdapter extends RecyclerView.Adapter<RecyclerListAdapte
     @Override
     public ItemViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
-        return new ItemViewHolder(view, mTextWatcher, mFocusListener);
+        ItemViewHolder holder = new ItemViewHolder(view, mTextWatcher, mFocusListener);
+
+        mTextCache.setPaint(holder.mTaskEditText.getPaint());
+
+        return holder;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // The rows of the paged list waiting for their page already have the IDs of their tasks.
+        if (mItemsList instanceof PagedTaskList) {
+            return ((PagedTaskList) mItemsList).getId(position);
+        }
+
+        return mItemsList.get(position).getId();
+    }
+
+    @Override
+    public void onBindViewHolder(ItemViewHolder holder, int position, List<Object> payloads) {
+        boolean renumbered = !payloads.isEmpty();
+        for (Object payload : payloads) {
+            renumbered &= payload == PAYLOAD_POSITION;
+        }
+
+        // The renumbered row only gets its new label, the text and the selection of its task are left alone.
+        if (renumbered) {
+            countBind(PAYLOAD_POSITION);
+
+            bindPosition(holder, position);
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
     @Override
     public void onBindViewHolder(ItemViewHolder holder, int position) {
-        Map<String, String> item = mItemsList.get(position);
+        long startTime = Metrics.startTimer();
 
-        holder.mPosTextView.setText(String.valueOf(++position));
+        countBind(null);
 
-        holder.mTaskEditText.setHint(mContext.getString(R.string.hint_task, position));
+        Task item = mItemsList.get(position);
 
-        String task = item.get(MainActivity.EXTRA_TASK);
+        bindPosition(holder, position);
+
+        // The paged list returns null while the item's page is being loaded.
+        String task = item != null ? item.getText() : null;
         if (task != null) {
-            holder.mTaskEditText.setText(task);
-            holder.mTaskEditText.setSelection(task.length());
+            Metrics.increment(mTextCache.isMeasured(task) ? METRIC_TEXT_HIT : METRIC_TEXT_MISS);
+
+            // The rebound row often shows the same text, setting it again would lay it out again.
+            if (!TextUtils.equals(holder.mTaskEditText.getText(), task)) {
+                holder.mTaskEditText.setText(task);
+                holder.mTaskEditText.setSelection(task.length());
+            }
         } else {
             holder.mTaskEditText.setText("");
         }
 
-        int id = Integer.valueOf(item.get(MainActivity.EXTRA_TASK_ID));
+        holder.mTaskEditText.setEnabled(item != null);
+        holder.setTag(getTaskId(position));
 
-        holder.setTag(id);
+        Metrics.stopTimer(METRIC_BIND, startTime);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        mRecyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mScrollListener);
+        mRecyclerView = null;
+    }
+
+    @Override
+    public boolean isItemMovable(RecyclerView.ViewHolder viewHolder) {
+        // The row of the paged list waiting for its page has no task to move yet.
+        int position = viewHolder.getAdapterPosition();
+        return position != RecyclerView.NO_POSITION && mItemsList.get(position) != null;
     }
 
     @Override
     public void onItemDismiss(RecyclerView.ViewHolder viewHolder) {
         int position = viewHolder.getAdapterPosition();
+        int id = getTaskId(position);
+
+        mVersion++;
 
         mItemsList.remove(position);
 
         if (mTaskListener != null) {
-            int id = ((ItemViewHolder) viewHolder).getTag();
             mTaskListener.onTaskDeleted(id);
         }
 
+        startOperation(OPERATION_DISMISS);
         notifyItemRemoved(position);
+        renumber(position, getItemCount());
     }
 
     @Override
@@ -119,18 +228,23 @@ public class RecyclerListAdapter extends RecyclerView.Adapter<RecyclerListAdapte
         int toPosition = targetHolder.getAdapterPosition();
 
         if (mSelectedId == 0) {
-            mSelectedId = ((ItemViewHolder) sourceHolder).getTag();
+            mSelectedId = getTaskId(fromPosition);
             mStartPosition = fromPosition;
         }
 
+        mVersion++;
         mEndPosition = toPosition;
-        mTargetId = ((ItemViewHolder) targetHolder).getTag();
-        mMoveDirection = mStartPosition > toPosition ? ItemTouchHelper.UP : ItemTouchHelper.DOWN;
+        // The target row may be waiting for its page, its task ID is known anyway.
+        mTargetId = getTaskId(toPosition);
+        // The drag direction is mapped to the provider's one, dragging up takes the key above the target.
+        mMoveDirection = mStartPosition > toPosition ? DataProvider.DIRECTION_UP : DataProvider.DIRECTION_DOWN;
 
-        Map<String, String> selectedItem = mItemsList.remove(fromPosition);
+        Task selectedItem = mItemsList.remove(fromPosition);
         mItemsList.add(toPosition > fromPosition ? toPosition - 1 : toPosition, selectedItem);
 
+        startOperation(OPERATION_DRAG);
         notifyItemMoved(fromPosition, toPosition);
+        renumber(Math.min(fromPosition, toPosition), Math.max(fromPosition, toPosition) + 1);
     }
 
     @Override
@@ -157,29 +271,320 @@ public class RecyclerListAdapter extends RecyclerView.Adapter<RecyclerListAdapte
     }
 
     /**
-     * Adds the provided data to the adapter. Optionally clears the old data.
+     * Replaces the data of the adapter with the provided list.
+     * The precalculated diff is dispatched only if the adapter data hasn't changed since the diff's
+     * old list has been taken, otherwise the whole data set is rebound.
+     * The text of the task being edited is kept, as it may be newer than the provided one.
      *
      * @param newList The list containing new data
-     * @param clearPrevious True to clear the old data first
+     * @param diff The diff from the old list to the new one, null to rebind all the items
+     * @param version The adapter version the diff's old list has been taken at
      */
-    public void addItems(List<Map<String, String>> newList, boolean clearPrevious) {
-        if (clearPrevious) {
+    public void setItems(List<Task> newList, ListDiff.Result diff, int version) {
+        if (mFocusedViewTag != 0) {
+            int position = findPosition(mFocusedViewTag);
+
+            Task focusedItem = position != -1 ? mItemsList.get(position) : null;
+            if (focusedItem != null) {
+                String focusedTask = focusedItem.getText();
+
+                for (int i = 0; i < newList.size(); i++) {
+                    if (newList.get(i).getId() == mFocusedViewTag) {
+                        newList.set(i, newList.get(i).withText(focusedTask));
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (mItemsList instanceof PagedTaskList) {
+            mItemsList = new TreeList<>();
+        } else {
             mItemsList.clear();
         }
+        mItemsList.addAll(newList);
+
+        startOperation(OPERATION_LOAD);
+
+        if (diff != null && version == mVersion) {
+            diff.dispatchTo(this);
 
-        if (newList != null) {
-            for (Map<String, String> item : newList) {
-                mItemsList.add(item);
+            int firstShifted = diff.getFirstShiftedPosition();
+            if (firstShifted != -1) {
+                renumber(firstShifted, getItemCount());
             }
+        } else {
+            notifyDataSetChanged();
         }
 
+        mVersion++;
+
+        prefetchRows(true);
+
+        if (mTaskListener != null) {
+            mTaskListener.onTaskCountChanged(getItemCount());
+        }
+    }
+
+    /**
+     * Puts the changed task in place: inserts it if it's new, otherwise moves it according
+     * to its position key and rebinds it if its text has changed. The task being edited keeps its text.
+     *
+     * @param task The changed task
+     */
+    public void applyTask(Task task) {
+        int position = findPosition(task.getId());
+
+        startOperation(OPERATION_APPLY);
+
+        if (position != -1) {
+            Task oldTask = mItemsList.remove(position);
+
+            int toPosition = findInsertPosition(task.getPosition());
+            mItemsList.add(toPosition, task.getId() == mFocusedViewTag ? task.withText(oldTask.getText()) : task);
+
+            if (toPosition != position) {
+                notifyItemMoved(position, toPosition);
+                renumber(Math.min(position, toPosition), Math.max(position, toPosition) + 1);
+            }
+            if (task.getId() != mFocusedViewTag && !oldTask.hasSameText(task)) {
+                notifyItemChanged(toPosition);
+            }
+        } else {
+            position = findInsertPosition(task.getPosition());
+            mItemsList.add(position, task);
+
+            notifyItemInserted(position);
+            renumber(position + 1, getItemCount());
+        }
+
+        mVersion++;
+
+        if (mTaskListener != null) {
+            mTaskListener.onTaskCountChanged(getItemCount());
+        }
+    }
+
+    /**
+     * Removes the task unless it has already been removed, e.g. by a swipe.
+     *
+     * @param id The task ID
+     */
+    public void removeTask(int id) {
+        int position = findPosition(id);
+
+        if (position != -1) {
+            mItemsList.remove(position);
+
+            startOperation(OPERATION_REMOVE);
+            notifyItemRemoved(position);
+            renumber(position, getItemCount());
+
+            mVersion++;
+
+            if (mTaskListener != null) {
+                mTaskListener.onTaskCountChanged(getItemCount());
+            }
+        }
+    }
+
+    /**
+     * Replaces the data of the adapter with the paged list, which loads the tasks around the visible window.
+     *
+     * @param pagedList The paged list
+     */
+    public void setPagedItems(PagedTaskList pagedList) {
+        pagedList.setOnPageLoadedListener(new PagedTaskList.OnPageLoadedListener() {
+            @Override
+            public void onPageLoaded(int positionStart, int itemCount) {
+                startOperation(OPERATION_LOAD);
+                notifyItemRangeChanged(positionStart, itemCount);
+            }
+        });
+
+        mItemsList = pagedList;
+
+        startOperation(OPERATION_LOAD);
         notifyDataSetChanged();
 
+        mVersion++;
+
+        prefetchRows(true);
+
         if (mTaskListener != null) {
             mTaskListener.onTaskCountChanged(getItemCount());
         }
     }
 
+    /**
+     * Checks whether the adapter is backed by the paged list.
+     *
+     * @return True if the data is paged
+     */
+    public boolean isPaged() {
+        return mItemsList instanceof PagedTaskList;
+    }
+
+    /**
+     * Copies the current data, e.g. to calculate the diff on a background thread.
+     *
+     * @return The copy of the list
+     */
+    public List<Task> getItemsSnapshot() {
+        return new ArrayList<>(mItemsList);
+    }
+
+    /**
+     * Gets the version of the data. It's changed every time the list is modified.
+     *
+     * @return The version
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Gets the ID of the task being edited.
+     *
+     * @return The task ID, 0 if there's none
+     */
+    public int getFocusedId() {
+        return mFocusedViewTag;
+    }
+
+    /**
+     * Binds the label and the hint of the row, both depend on its position only.
+     *
+     * @param holder The row
+     * @param position The row position
+     */
+    private void bindPosition(ItemViewHolder holder, int position) {
+        // The labels are formatted ahead on the background thread.
+        holder.mPosTextView.setText(mTextCache.getLabel(position));
+
+        holder.mTaskEditText.setHint(mTextCache.getHint(position));
+    }
+
+    /**
+     * Updates the labels of the rows in the range after their positions have shifted.
+     *
+     * @param start The first position
+     * @param end The position after the last one
+     */
+    private void renumber(int start, int end) {
+        if (start < end) {
+            notifyItemRangeChanged(start, end - start, PAYLOAD_POSITION);
+        }
+    }
+
+    /**
+     * Marks the following binds as caused by the provided operation, until the next one starts.
+     *
+     * @param operation The operation
+     */
+    private void startOperation(String operation) {
+        mOperation = operation;
+
+        Metrics.increment(METRIC_OPERATION + operation);
+    }
+
+    /**
+     * Counts the bind under the operation which has caused it, the binds made while scrolling
+     * are counted apart.
+     *
+     * @param payload The payload of the partial bind, null for the full one
+     */
+    private void countBind(Object payload) {
+        boolean scrolling = mRecyclerView != null &&
+                mRecyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE;
+        String operation = scrolling ? OPERATION_SCROLL : mOperation;
+
+        Metrics.increment(METRIC_BIND_COUNT + operation + (payload == PAYLOAD_POSITION ? ".position" : ".full"));
+    }
+
+    /**
+     * Prepares the texts of the rows around the visible ones off the main thread.
+     *
+     * @param force True to prepare them even if the list hasn't been scrolled far, e.g. as its data has changed
+     */
+    private void prefetchRows(boolean force) {
+        if (mRecyclerView == null || !(mRecyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        // Nothing is laid out yet right after the data has been set, the top rows are prepared then.
+        int first = Math.max(layoutManager.findFirstVisibleItemPosition(), 0);
+        int last = layoutManager.findLastVisibleItemPosition();
+
+        if (force || mPrefetchPosition == -1 ||
+                Math.abs(first - mPrefetchPosition) >= TaskTextCache.PREFETCH_MARGIN / 2) {
+            mPrefetchPosition = first;
+            mTextCache.prefetch(mItemsList, first, last);
+        }
+    }
+
+    /**
+     * Finds the position to insert the task with the provided key at, the list is in the descending key order.
+     *
+     * @param key The position key
+     * @return The position
+     */
+    private int findInsertPosition(long key) {
+        int low = 0, high = mItemsList.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mItemsList.get(middle).getPosition() > key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the position of the task with the provided ID, checking the last found position first.
+     *
+     * @param id The task ID
+     * @return The position, -1 if there's no such task
+     */
+    /**
+     * Gets the ID of the task at the position, also for the row of the paged list waiting for its page.
+     */
+    private int getTaskId(int position) {
+        if (mItemsList instanceof PagedTaskList) {
+            return ((PagedTaskList) mItemsList).getId(position);
+        }
+
+        return mItemsList.get(position).getId();
+    }
+
+    private int findPosition(int id) {
+        if (mItemsList instanceof PagedTaskList) {
+            return ((PagedTaskList) mItemsList).indexOfId(id);
+        }
+
+        if (mFocusedPosition < mItemsList.size() &&
+                mItemsList.get(mFocusedPosition).getId() == id) {
+            return mFocusedPosition;
+        }
+
+        // The tree list is walked by its iterator, its get is O(log n).
+        int i = 0;
+        for (Task task : mItemsList) {
+            if (task.getId() == id) {
+                mFocusedPosition = i;
+                return i;
+            }
+            i++;
+        }
+
+        return -1;
+    }
+
     /**
      * This holder stores the links to the views.
      */
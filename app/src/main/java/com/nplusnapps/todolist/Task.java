@@ -0,0 +1,83 @@
+package com.nplusnapps.todolist;
+
+/**
+ * The immutable task as it is shown in the list. The edits make a copy, so a task handed to the adapter
+ * or kept in the cache never changes under its reader.
+ */
+public final class Task {
+
+    private final int mId;
+    private final long mPosition;
+    private final String mText;
+
+    /**
+     * Constructs a new task.
+     *
+     * @param id The task ID
+     * @param position The order key, the greater keys are shown first
+     * @param text The task text, may be null
+     */
+    public Task(int id, long position, String text) {
+        mId = id;
+        mPosition = position;
+        mText = text;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public long getPosition() {
+        return mPosition;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * Copies the task replacing its text.
+     *
+     * @param text The new text
+     * @return The edited task
+     */
+    public Task withText(String text) {
+        return new Task(mId, mPosition, text);
+    }
+
+    /**
+     * Checks whether the tasks look the same on the screen.
+     *
+     * @param task The other task
+     * @return True if the texts are the same
+     */
+    public boolean hasSameText(Task task) {
+        return mText != null ? mText.equals(task.mText) : task.mText == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Task)) {
+            return false;
+        }
+
+        Task task = (Task) o;
+        return mId == task.mId && mPosition == task.mPosition && hasSameText(task);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mId;
+        result = 31 * result + (int) (mPosition ^ (mPosition >>> 32));
+        result = 31 * result + (mText != null ? mText.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Task{id=" + mId + ", position=" + mPosition + ", text=" + mText + "}";
+    }
+}
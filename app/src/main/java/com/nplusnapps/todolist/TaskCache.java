@@ -0,0 +1,273 @@
+package com.nplusnapps.todolist;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The write-through cache holds the ordered list and the position keys in memory, so the provider serves
+ * the list reads and the neighbour lookups without going to disk. Every list has its own cache.
+ * The provider keeps the cache up to date on every write it makes. Any write the cache can't follow
+ * invalidates it, and it's loaded again on the next read. A list larger than the size cap is evicted
+ * and not cached until it shrinks. All the methods are thread safe.
+ */
+public class TaskCache {
+
+    public static final int DEFAULT_MAX_SIZE = 20000;
+
+    /**
+     * Sorts the tasks in the list order: the greater keys first, the IDs break the ties.
+     */
+    private static final Comparator<Task> LIST_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            if (lhs.getPosition() != rhs.getPosition()) {
+                return lhs.getPosition() > rhs.getPosition() ? -1 : 1;
+            }
+            return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+        }
+    };
+
+    private final int mListId;
+    private final int mMaxSize;
+    private final TreeSet<Task> mOrder = new TreeSet<>(LIST_ORDER);
+    private final Map<Integer, Task> mTasks = new HashMap<>();
+    private boolean mWarm, mTooLarge;
+    private long mHitCount, mMissCount, mEvictionCount;
+
+    /**
+     * Constructs a new instance of the cache.
+     *
+     * @param listId The ID of the cached list
+     * @param maxSize The maximum number of tasks to keep in memory
+     */
+    public TaskCache(int listId, int maxSize) {
+        mListId = listId;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Makes sure the list is in memory, loading it from the database if needed.
+     * Every call is counted as a hit or a miss.
+     * The cache lock is taken only once the transaction has started, in the same order as the writers,
+     * which start their transaction and then update the cache, so they never wait for each other in a cycle.
+     *
+     * @param db The database
+     * @param table The tasks table
+     * @return True if the list is in memory
+     */
+    public boolean ensureLoaded(SQLiteDatabase db, String table) {
+        synchronized (this) {
+            if (mWarm) {
+                mHitCount++;
+                return true;
+            }
+
+            mMissCount++;
+
+            if (mTooLarge) {
+                return false;
+            }
+        }
+
+        // The list is read in a transaction, which holds the primary connection, so no write can slip in
+        // between the read and the cache becoming warm.
+        db.beginTransactionNonExclusive();
+        try {
+            boolean loaded = load(db, table);
+
+            db.setTransactionSuccessful();
+
+            return loaded;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads the list unless another thread has read it in the meantime. Must be called in a transaction.
+     */
+    private synchronized boolean load(SQLiteDatabase db, String table) {
+        if (mWarm || mTooLarge) {
+            return mWarm;
+        }
+
+        // The tombstones are never cached.
+        String selection = DataProvider.COLUMN_LIST_ID + " = " + mListId + " AND " +
+                DataProvider.COLUMN_DELETED + " = 0";
+
+        if (DatabaseUtils.queryNumEntries(db, table, selection) > mMaxSize) {
+            mTooLarge = true;
+            return false;
+        }
+
+        Cursor cursor = db.query(table, new String[] {DataProvider.COLUMN_ID,
+                DataProvider.COLUMN_POSITION, DataProvider.COLUMN_TASK}, selection, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Task task = new Task(cursor.getInt(0), cursor.getLong(1), cursor.getString(2));
+
+                mOrder.add(task);
+                mTasks.put(task.getId(), task);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mWarm = true;
+
+        return true;
+    }
+
+    /**
+     * Puts the inserted or updated task. Evicts the whole list if it outgrows the size cap.
+     *
+     * @param task The task
+     */
+    public synchronized void put(Task task) {
+        if (!mWarm) {
+            return;
+        }
+
+        Task oldTask = mTasks.put(task.getId(), task);
+        if (oldTask != null) {
+            mOrder.remove(oldTask);
+        }
+        mOrder.add(task);
+
+        if (mTasks.size() > mMaxSize) {
+            clear();
+
+            mTooLarge = true;
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Removes the deleted task.
+     *
+     * @param id The task ID
+     */
+    public synchronized void remove(int id) {
+        // The list may fit in the cache once again.
+        mTooLarge = false;
+
+        Task task = mTasks.remove(id);
+        if (task != null) {
+            mOrder.remove(task);
+        }
+    }
+
+    /**
+     * Drops the cached list, e.g. after a write the cache can't follow.
+     */
+    public synchronized void invalidate() {
+        clear();
+
+        mTooLarge = false;
+    }
+
+    /**
+     * Gets the cached task.
+     *
+     * @param id The task ID
+     * @return The task, or null if it's not cached
+     */
+    public synchronized Task get(int id) {
+        return mTasks.get(id);
+    }
+
+    /**
+     * Gets the closest key above (the greater one) or below (the smaller one) the provided key.
+     *
+     * @param position The key to start from
+     * @param excludedId The ID of the task to skip, e.g. the one being moved
+     * @param above True to look for the greater key
+     * @return The key, or null if there's none
+     */
+    public synchronized Long getNeighbourPosition(long position, int excludedId, boolean above) {
+        Iterator<Task> iterator = above ?
+                mOrder.headSet(new Task(Integer.MIN_VALUE, position, null), false).descendingIterator() :
+                mOrder.tailSet(new Task(Integer.MAX_VALUE, position, null), false).iterator();
+
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (task.getId() != excludedId && task.getPosition() != position) {
+                return task.getPosition();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the page of the ordered list.
+     *
+     * @param offset The offset of the first task
+     * @param limit The maximum task count, negative for no limit
+     * @return The tasks
+     */
+    public synchronized List<Task> getOrdered(int offset, int limit) {
+        return copy(mOrder, offset, limit);
+    }
+
+    /**
+     * Gets the page of the ordered list following the task with the provided key.
+     *
+     * @param lastPosition The key of the last task of the previous page
+     * @param limit The maximum task count, negative for no limit
+     * @return The tasks
+     */
+    public synchronized List<Task> getOrderedBefore(long lastPosition, int limit) {
+        return copy(mOrder.tailSet(new Task(Integer.MAX_VALUE, lastPosition, null), false), 0, limit);
+    }
+
+    public int getListId() {
+        return mListId;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int size() {
+        return mTasks.size();
+    }
+
+    private void clear() {
+        mWarm = false;
+        mOrder.clear();
+        mTasks.clear();
+    }
+
+    private static List<Task> copy(NavigableSet<Task> tasks, int offset, int limit) {
+        List<Task> page = new ArrayList<>(limit >= 0 ? Math.min(limit, tasks.size()) : tasks.size());
+
+        Iterator<Task> iterator = tasks.iterator();
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        while (iterator.hasNext() && (limit < 0 || page.size() < limit)) {
+            page.add(iterator.next());
+        }
+
+        return page;
+    }
+}
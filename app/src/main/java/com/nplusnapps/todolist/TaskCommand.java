@@ -0,0 +1,103 @@
+package com.nplusnapps.todolist;
+
+import android.content.Intent;
+
+/**
+ * The immutable command describing a single task operation requested by the UI.
+ * A command is journaled before it's applied, the command ID lets the journal ignore a redelivered intent.
+ */
+public class TaskCommand {
+
+    private final String mAction;
+    private final int mListId;
+    private final int mTaskId;
+    private final int mTargetId;
+    private final int mDirection;
+    private final String mTask;
+    private final String mCommandId;
+    private final long mJournalId;
+
+    public TaskCommand(String action, int listId, int taskId, int targetId, int direction, String task,
+                       String commandId, long journalId) {
+        mAction = action;
+        mListId = listId;
+        mTaskId = taskId;
+        mTargetId = targetId;
+        mDirection = direction;
+        mTask = task;
+        mCommandId = commandId;
+        mJournalId = journalId;
+    }
+
+    /**
+     * Creates the command from the provided service intent.
+     *
+     * @param intent The intent
+     * @return The command, or null if the intent has no action
+     */
+    public static TaskCommand fromIntent(Intent intent) {
+        if (intent == null || intent.getAction() == null) {
+            return null;
+        }
+
+        return new TaskCommand(intent.getAction(),
+                intent.getIntExtra(MainActivity.EXTRA_LIST_ID, DataProvider.DEFAULT_LIST_ID),
+                intent.getIntExtra(MainActivity.EXTRA_TASK_ID, 0),
+                intent.getIntExtra(MainActivity.EXTRA_TASK_TARGET, 0),
+                intent.getIntExtra(MainActivity.EXTRA_TASK_DIRECTION, 0),
+                intent.getStringExtra(MainActivity.EXTRA_TASK),
+                intent.getStringExtra(MainActivity.EXTRA_COMMAND_ID), 0);
+    }
+
+    /**
+     * Copies the command with the ID of its journal record.
+     *
+     * @param journalId The journal record ID
+     * @return The journaled command
+     */
+    public TaskCommand withJournalId(long journalId) {
+        return new TaskCommand(mAction, mListId, mTaskId, mTargetId, mDirection, mTask, mCommandId, journalId);
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public int getListId() {
+        return mListId;
+    }
+
+    public int getTaskId() {
+        return mTaskId;
+    }
+
+    public int getTargetId() {
+        return mTargetId;
+    }
+
+    public int getDirection() {
+        return mDirection;
+    }
+
+    public String getTask() {
+        return mTask;
+    }
+
+    public String getCommandId() {
+        return mCommandId;
+    }
+
+    public long getJournalId() {
+        return mJournalId;
+    }
+
+    /**
+     * Checks whether the command has the provided action.
+     *
+     * @param action The action
+     * @return True if the action matches
+     */
+    public boolean is(String action) {
+        return mAction.equals(action);
+    }
+}
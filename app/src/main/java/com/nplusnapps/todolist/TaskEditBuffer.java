@@ -0,0 +1,108 @@
+package com.nplusnapps.todolist;
+
+import android.os.Handler;
+import android.util.SparseArray;
+
+/**
+ * The buffer coalesces the task text edits, so a burst of keystrokes turns into a single write.
+ * Only the latest text of each task is kept. The edits are flushed after the idle interval,
+ * or earlier when the caller asks for it (e.g. the input loses focus or the activity is paused).
+ * The pending edits are only in memory, so the caller must flush them before the process can be killed.
+ * All the methods must be called on the thread the buffer has been created on.
+ */
+public class TaskEditBuffer {
+
+    public static final long DEFAULT_IDLE_INTERVAL = 750;
+
+    private final Handler mHandler;
+    private final SparseArray<String> mPendingEdits;
+    private final OnFlushListener mFlushListener;
+    private final Runnable mFlushRunnable;
+    private final long mIdleInterval;
+
+    /**
+     * Constructs a new instance of the buffer.
+     *
+     * @param idleInterval The interval in milliseconds after the last edit to flush the buffer
+     * @param listener The listener to receive the flushed edits
+     */
+    public TaskEditBuffer(long idleInterval, OnFlushListener listener) {
+        mHandler = new Handler();
+        mPendingEdits = new SparseArray<>();
+        mFlushListener = listener;
+        mIdleInterval = idleInterval;
+
+        mFlushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Puts the edited text replacing the pending one of the same task and restarts the idle timer.
+     *
+     * @param taskId The task ID
+     * @param taskText The new task text
+     */
+    public void put(int taskId, String taskText) {
+        mPendingEdits.put(taskId, taskText);
+
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, mIdleInterval);
+    }
+
+    /**
+     * Drops the pending edit of the task, e.g. when the task is deleted.
+     *
+     * @param taskId The task ID
+     */
+    public void discard(int taskId) {
+        mPendingEdits.remove(taskId);
+    }
+
+    /**
+     * Flushes the pending edit of the provided task only.
+     *
+     * @param taskId The task ID
+     */
+    public void flush(int taskId) {
+        int index = mPendingEdits.indexOfKey(taskId);
+        if (index >= 0) {
+            String taskText = mPendingEdits.valueAt(index);
+            mPendingEdits.removeAt(index);
+
+            mFlushListener.onFlush(taskId, taskText);
+        }
+    }
+
+    /**
+     * Flushes all the pending edits.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+
+        // Copies the edits first, so the listener is free to put new ones.
+        SparseArray<String> edits = mPendingEdits.clone();
+        mPendingEdits.clear();
+
+        for (int i = 0; i < edits.size(); i++) {
+            mFlushListener.onFlush(edits.keyAt(i), edits.valueAt(i));
+        }
+    }
+
+    /**
+     * This interface provides the callback to write a flushed edit.
+     */
+    public interface OnFlushListener {
+
+        /**
+         * Called when the latest text of the task has to be written.
+         *
+         * @param taskId The task ID
+         * @param taskText The task text
+         */
+        void onFlush(int taskId, String taskText);
+    }
+}
@@ -0,0 +1,172 @@
+package com.nplusnapps.todolist;
+
+import java.util.Arrays;
+
+/**
+ * The sorter restores the display order of the doubly linked task rows in a single pass.
+ * The rows are indexed by ID first, then the chain is walked from the tail (next ID = 0) through
+ * the previous IDs. Rows which can't be reached from the tail are reported instead of being dropped silently.
+ */
+public class TaskListSorter {
+
+    private TaskListSorter() {
+
+    }
+
+    /**
+     * Sorts the provided rows. All the arrays must be of the same length, the element at each index
+     * describes one row.
+     *
+     * @param ids The task IDs
+     * @param previousIds The previous task IDs, 0 for the head
+     * @param nextIds The next task IDs, 0 for the tail
+     * @return The sort result
+     */
+    public static Result sort(int[] ids, int[] previousIds, int[] nextIds) {
+        int count = ids.length;
+        if (previousIds.length != count || nextIds.length != count) {
+            throw new IllegalArgumentException("The row arrays must be of the same length");
+        }
+
+        IdIndex index = new IdIndex(count);
+
+        int tailRow = -1;
+        for (int row = 0; row < count; row++) {
+            index.put(ids[row], row);
+
+            if (tailRow == -1 && nextIds[row] == 0) {
+                tailRow = row;
+            }
+        }
+
+        int[] order = new int[count];
+        boolean[] visited = new boolean[count];
+        boolean cycle = false;
+        int sorted = 0;
+
+        int row = tailRow;
+        while (row != -1) {
+            if (visited[row]) {
+                // The chain has looped back onto itself.
+                cycle = true;
+                break;
+            }
+
+            visited[row] = true;
+            order[sorted++] = row;
+
+            int previousId = previousIds[row];
+            row = previousId != 0 ? index.get(previousId) : -1;
+        }
+
+        int[] orphanIds = new int[count - sorted];
+        int orphans = 0;
+        for (row = 0; row < count; row++) {
+            if (!visited[row]) {
+                orphanIds[orphans++] = ids[row];
+            }
+        }
+
+        return new Result(Arrays.copyOf(order, sorted), orphanIds, cycle);
+    }
+
+    /**
+     * The result holds the sorted row indexes and the rows left out of the chain.
+     */
+    public static class Result {
+
+        private final int[] mOrder;
+        private final int[] mOrphanIds;
+        private final boolean mCycle;
+
+        private Result(int[] order, int[] orphanIds, boolean cycle) {
+            mOrder = order;
+            mOrphanIds = orphanIds;
+            mCycle = cycle;
+        }
+
+        /**
+         * Gets the row indexes in the display order, starting from the tail.
+         *
+         * @return The row indexes
+         */
+        public int[] getOrder() {
+            return mOrder;
+        }
+
+        /**
+         * Gets the IDs of the rows which can't be reached from the tail.
+         *
+         * @return The orphaned task IDs
+         */
+        public int[] getOrphanIds() {
+            return mOrphanIds;
+        }
+
+        /**
+         * Checks whether the walk has run into a cycle.
+         *
+         * @return True if the chain is cyclic
+         */
+        public boolean hasCycle() {
+            return mCycle;
+        }
+
+        /**
+         * Checks whether every row has been reached from the tail.
+         *
+         * @return True if the chain is consistent
+         */
+        public boolean isConsistent() {
+            return !mCycle && mOrphanIds.length == 0;
+        }
+    }
+
+    /**
+     * The open addressing hash index mapping the task IDs to the row indexes without boxing.
+     */
+    private static class IdIndex {
+
+        private final int[] mKeys;
+        private final int[] mValues;
+        private final int mMask;
+
+        IdIndex(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1;
+
+            mKeys = new int[capacity];
+            mValues = new int[capacity];
+            mMask = capacity - 1;
+        }
+
+        void put(int key, int value) {
+            // The task IDs are positive, so 0 marks an empty slot.
+            int slot = mix(key) & mMask;
+            while (mKeys[slot] != 0 && mKeys[slot] != key) {
+                slot = (slot + 1) & mMask;
+            }
+
+            if (mKeys[slot] == 0) {
+                mKeys[slot] = key;
+                mValues[slot] = value;
+            }
+        }
+
+        int get(int key) {
+            int slot = mix(key) & mMask;
+            while (mKeys[slot] != 0) {
+                if (mKeys[slot] == key) {
+                    return mValues[slot];
+                }
+                slot = (slot + 1) & mMask;
+            }
+
+            return -1;
+        }
+
+        private static int mix(int key) {
+            int hash = key * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.nplusnapps.todolist;
+
+import java.nio.ByteOrder;
+
+/**
+ * The names, the schema and the hot statements of the task database. The provider creates and queries
+ * the database with them, and the benchmark module compiles this class too, so its database runs
+ * the very same schema, triggers and statements as the one on the device.
+ * The statements take their values as the <code>?</code> arguments.
+ */
+public final class TaskSchema {
+
+    /**
+     * The version of the schema built by {@link #CREATE_SCHEMA}.
+     */
+    public static final int SCHEMA_VERSION = 10;
+
+    public static final String TABLE_TASKS = "Tasks";
+    public static final String TABLE_JOURNAL = "Journal";
+    public static final String TABLE_SEARCH = "Tasks_fts";
+    public static final String TABLE_LISTS = "Lists";
+    public static final String INDEX_POSITION = "Tasks_position";
+    public static final String INDEX_LIST_POSITION = "Tasks_list_position";
+
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_POSITION = "position";
+    public static final String COLUMN_TASK = "task";
+    public static final String COLUMN_DELETED = "deleted";
+    public static final String COLUMN_LIST_ID = "list_id";
+
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_HEAD = "head";
+    public static final String COLUMN_TAIL = "tail";
+    public static final String COLUMN_TASK_COUNT = "task_count";
+    public static final String COLUMN_VERSION = "version";
+
+    public static final String COLUMN_COMMAND_ID = "command_id";
+    public static final String COLUMN_ACTION = "action";
+    public static final String COLUMN_TASK_ID = "task_id";
+    public static final String COLUMN_TARGET = "target";
+    public static final String COLUMN_DIRECTION = "direction";
+    public static final String COLUMN_APPLIED = "applied";
+    public static final String COLUMN_ATTEMPTS = "attempts";
+
+    public static final int DEFAULT_LIST_ID = 1;
+
+    // The tokenizers folding the case of any script, the ICU one is there for the SQLite older than 3.7.13.
+    public static final String TOKENIZER_UNICODE = "unicode61";
+    public static final String TOKENIZER_ICU = "icu";
+
+    /**
+     * The gap left between the adjacent order keys. A moved task takes the middle of the gap,
+     * so the keys are rebalanced only after the same gap has been halved 32 times.
+     */
+    public static final long POSITION_GAP = 1L << 32;
+
+    public static final String ORDER_LIST = COLUMN_POSITION + " DESC";
+
+    // The table of the version 2, which the provider's convertLinkedList() builds from the linked list
+    // of the version 1. The tasks are ordered by the gapped keys, the later columns are added on top of it.
+    public static final String CREATE_TABLE =
+            "CREATE TABLE " + TABLE_TASKS + " (" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_POSITION + " INTEGER NOT NULL, " + COLUMN_TASK + " TEXT);";
+    public static final String CREATE_JOURNAL =
+            "CREATE TABLE " + TABLE_JOURNAL + " (" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_COMMAND_ID + " TEXT UNIQUE, " + COLUMN_ACTION + " TEXT NOT NULL, " +
+                    COLUMN_TASK_ID + " INTEGER, " + COLUMN_TARGET + " INTEGER, " + COLUMN_DIRECTION +
+                    " INTEGER, " + COLUMN_TASK + " TEXT, " + COLUMN_APPLIED + " INTEGER NOT NULL DEFAULT 0);";
+    public static final String[] SEARCH_TRIGGER_NAMES =
+            {TABLE_SEARCH + "_insert", TABLE_SEARCH + "_update", TABLE_SEARCH + "_delete"};
+    public static final String FILL_SEARCH =
+            "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_TASK + ") SELECT " + COLUMN_ID + ", " +
+                    COLUMN_TASK + " FROM " + TABLE_TASKS;
+    // The deletion time in milliseconds, 0 for the live tasks.
+    public static final String ADD_COLUMN_DELETED =
+            "ALTER TABLE " + TABLE_TASKS + " ADD COLUMN " + COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0;";
+    public static final String CREATE_INDEX_POSITION =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_POSITION + " ON " + TABLE_TASKS + " (" + COLUMN_POSITION + ");";
+    // The tasks with no list belong to the default one.
+    public static final String ADD_COLUMN_LIST_ID =
+            "ALTER TABLE " + TABLE_TASKS + " ADD COLUMN " + COLUMN_LIST_ID + " INTEGER NOT NULL DEFAULT " +
+                    DEFAULT_LIST_ID + ";";
+    public static final String ADD_JOURNAL_COLUMN_LIST_ID =
+            "ALTER TABLE " + TABLE_JOURNAL + " ADD COLUMN " + COLUMN_LIST_ID + " INTEGER;";
+    // The number of the times the command has been replayed, a command failing every time is given up on.
+    public static final String ADD_JOURNAL_COLUMN_ATTEMPTS =
+            "ALTER TABLE " + TABLE_JOURNAL + " ADD COLUMN " + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0;";
+    // Every list is read and written through its own range of the index.
+    public static final String CREATE_INDEX_LIST_POSITION =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_LIST_POSITION + " ON " + TABLE_TASKS + " (" +
+                    COLUMN_LIST_ID + ", " + COLUMN_POSITION + ");";
+    // The head and tail are the bounds of the list's keys: they only ever grow apart, so a key beyond them
+    // is always free. The count is the number of the live tasks.
+    public static final String CREATE_LISTS =
+            "CREATE TABLE " + TABLE_LISTS + " (" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_NAME + " TEXT, " + COLUMN_HEAD + " INTEGER NOT NULL DEFAULT 0, " + COLUMN_TAIL +
+                    " INTEGER NOT NULL DEFAULT 0, " + COLUMN_TASK_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+    // The default list holds all the existing tasks.
+    public static final String INSERT_DEFAULT_LIST =
+            "INSERT INTO " + TABLE_LISTS + " (" + COLUMN_ID + ", " + COLUMN_HEAD + ", " + COLUMN_TAIL + ", " +
+                    COLUMN_TASK_COUNT + ") SELECT " + DEFAULT_LIST_ID + ", IFNULL(MIN(" + COLUMN_POSITION +
+                    "), 0), IFNULL(MAX(" + COLUMN_POSITION + "), 0), IFNULL(SUM(" + COLUMN_DELETED + " = 0), 0) FROM " +
+                    TABLE_TASKS;
+    // The version goes up with every change of the list's tasks, so a copy of the list taken at
+    // a version is known to be current while the version stays the same.
+    public static final String ADD_LISTS_COLUMN_VERSION =
+            "ALTER TABLE " + TABLE_LISTS + " ADD COLUMN " + COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0;";
+    public static final String[] LIST_TRIGGER_NAMES =
+            {TABLE_LISTS + "_insert", TABLE_LISTS + "_update", TABLE_LISTS + "_move", TABLE_LISTS + "_delete"};
+    // The triggers keep the list rows in sync with every write, the list row is the only extra row touched.
+    public static final String[] CREATE_LIST_TRIGGERS = {
+            "CREATE TRIGGER " + LIST_TRIGGER_NAMES[0] + " AFTER INSERT ON " + TABLE_TASKS + " BEGIN " +
+                    "UPDATE " + TABLE_LISTS + " SET " + COLUMN_HEAD + " = MIN(" + COLUMN_HEAD + ", new." +
+                    COLUMN_POSITION + "), " + COLUMN_TAIL + " = MAX(" + COLUMN_TAIL + ", new." + COLUMN_POSITION +
+                    "), " + COLUMN_TASK_COUNT + " = " + COLUMN_TASK_COUNT + " + (new." + COLUMN_DELETED +
+                    " = 0), " + COLUMN_VERSION + " = " + COLUMN_VERSION + " + 1 WHERE " + COLUMN_ID + " = new." +
+                    COLUMN_LIST_ID + "; END;",
+            "CREATE TRIGGER " + LIST_TRIGGER_NAMES[1] + " AFTER UPDATE OF " + COLUMN_POSITION + ", " +
+                    COLUMN_DELETED + ", " + COLUMN_TASK + " ON " + TABLE_TASKS + " WHEN old." + COLUMN_LIST_ID +
+                    " = new." + COLUMN_LIST_ID + " BEGIN UPDATE " + TABLE_LISTS + " SET " + COLUMN_HEAD +
+                    " = MIN(" + COLUMN_HEAD + ", new." + COLUMN_POSITION + "), " + COLUMN_TAIL + " = MAX(" +
+                    COLUMN_TAIL + ", new." + COLUMN_POSITION + "), " + COLUMN_TASK_COUNT + " = " +
+                    COLUMN_TASK_COUNT + " + (new." + COLUMN_DELETED + " = 0) - (old." + COLUMN_DELETED +
+                    " = 0), " + COLUMN_VERSION + " = " + COLUMN_VERSION + " + 1 WHERE " + COLUMN_ID + " = new." +
+                    COLUMN_LIST_ID + "; END;",
+            "CREATE TRIGGER " + LIST_TRIGGER_NAMES[2] + " AFTER UPDATE OF " + COLUMN_LIST_ID + " ON " +
+                    TABLE_TASKS + " WHEN old." + COLUMN_LIST_ID + " != new." + COLUMN_LIST_ID + " BEGIN UPDATE " +
+                    TABLE_LISTS + " SET " + COLUMN_TASK_COUNT + " = " + COLUMN_TASK_COUNT + " - (old." +
+                    COLUMN_DELETED + " = 0), " + COLUMN_VERSION + " = " + COLUMN_VERSION + " + 1 WHERE " +
+                    COLUMN_ID + " = old." + COLUMN_LIST_ID + "; UPDATE " + TABLE_LISTS + " SET " + COLUMN_HEAD +
+                    " = MIN(" + COLUMN_HEAD + ", new." + COLUMN_POSITION + "), " + COLUMN_TAIL + " = MAX(" +
+                    COLUMN_TAIL + ", new." + COLUMN_POSITION + "), " + COLUMN_TASK_COUNT + " = " +
+                    COLUMN_TASK_COUNT + " + (new." + COLUMN_DELETED + " = 0), " + COLUMN_VERSION + " = " +
+                    COLUMN_VERSION + " + 1 WHERE " + COLUMN_ID + " = new." + COLUMN_LIST_ID + "; END;",
+            // Purging a tombstone changes nothing visible, so it keeps the version.
+            "CREATE TRIGGER " + LIST_TRIGGER_NAMES[3] + " AFTER DELETE ON " + TABLE_TASKS + " BEGIN " +
+                    "UPDATE " + TABLE_LISTS + " SET " + COLUMN_TASK_COUNT + " = " + COLUMN_TASK_COUNT + " - (old." +
+                    COLUMN_DELETED + " = 0), " + COLUMN_VERSION + " = " + COLUMN_VERSION + " + (old." +
+                    COLUMN_DELETED + " = 0) WHERE " + COLUMN_ID + " = old." + COLUMN_LIST_ID + "; END;"
+    };
+
+    /**
+     * Builds the current schema on an empty database, the steps are those the migrations take one by one.
+     */
+    public static final String[] CREATE_SCHEMA = createSchema(TOKENIZER_UNICODE);
+
+    // The live tasks of the list, optionally below the key of the last row of the previous page.
+    public static final String WHERE_ORDERED = COLUMN_DELETED + " = 0 AND " + COLUMN_LIST_ID + " = ?";
+    public static final String WHERE_ORDERED_BEFORE = WHERE_ORDERED + " AND " + COLUMN_POSITION + " < ?";
+    public static final String WHERE_TOMBSTONES = COLUMN_DELETED + " != 0";
+
+    // The tail key of the list, the new task goes above it.
+    public static final String SELECT_TAIL =
+            "SELECT " + COLUMN_TAIL + " FROM " + TABLE_LISTS + " WHERE " + COLUMN_ID + " = ?";
+    // The key of the live task, none for a tombstone.
+    public static final String SELECT_POSITION =
+            "SELECT " + COLUMN_POSITION + " FROM " + TABLE_TASKS + " WHERE " + COLUMN_ID + " = ? AND " +
+                    COLUMN_DELETED + " = 0";
+    // The closest live key above or below the target one in the list, skipping the moved task.
+    public static final String SELECT_NEIGHBOUR_ABOVE =
+            "SELECT MIN(" + COLUMN_POSITION + ") FROM " + TABLE_TASKS + " WHERE " + COLUMN_LIST_ID + " = ? AND " +
+                    COLUMN_POSITION + " > ? AND " + COLUMN_ID + " != ? AND " + COLUMN_DELETED + " = 0";
+    public static final String SELECT_NEIGHBOUR_BELOW =
+            "SELECT MAX(" + COLUMN_POSITION + ") FROM " + TABLE_TASKS + " WHERE " + COLUMN_LIST_ID + " = ? AND " +
+                    COLUMN_POSITION + " < ? AND " + COLUMN_ID + " != ? AND " + COLUMN_DELETED + " = 0";
+    public static final String SELECT_PAGE =
+            "SELECT " + COLUMN_ID + ", " + COLUMN_POSITION + ", " + COLUMN_TASK + " FROM " + TABLE_TASKS +
+                    " WHERE " + WHERE_ORDERED + " ORDER BY " + ORDER_LIST + " LIMIT ?, ?";
+    public static final String SELECT_PAGE_BEFORE =
+            "SELECT " + COLUMN_ID + ", " + COLUMN_POSITION + ", " + COLUMN_TASK + " FROM " + TABLE_TASKS +
+                    " WHERE " + WHERE_ORDERED_BEFORE + " ORDER BY " + ORDER_LIST + " LIMIT ?";
+    // The tombstones are rebalanced too, so a restored task comes back to its place.
+    public static final String SELECT_REBALANCE =
+            "SELECT " + COLUMN_ID + " FROM " + TABLE_TASKS + " WHERE " + COLUMN_LIST_ID + " = ? ORDER BY " +
+                    COLUMN_POSITION + " ASC";
+    public static final String UPDATE_POSITION =
+            "UPDATE " + TABLE_TASKS + " SET " + COLUMN_POSITION + " = ? WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * The hot queries of the tasks which must be served by the list index, see {@link #isIndexedPlan(String)}.
+     * The tail is read from the list row by its key.
+     */
+    public static final String[] HOT_QUERIES = {SELECT_NEIGHBOUR_ABOVE, SELECT_NEIGHBOUR_BELOW,
+            SELECT_PAGE, SELECT_PAGE_BEFORE};
+
+    private TaskSchema() {
+
+    }
+
+    /**
+     * Gets the statements building the current schema on an empty database.
+     *
+     * @param tokenizer The tokenizer of the full-text index
+     * @return The statements
+     */
+    public static String[] createSchema(String tokenizer) {
+        return concat(new String[] {CREATE_TABLE, ADD_COLUMN_DELETED, ADD_COLUMN_LIST_ID,
+                CREATE_INDEX_LIST_POSITION, CREATE_JOURNAL, ADD_JOURNAL_COLUMN_LIST_ID}, createSearch(tokenizer),
+                new String[] {CREATE_LISTS, INSERT_DEFAULT_LIST, ADD_LISTS_COLUMN_VERSION}, CREATE_LIST_TRIGGERS,
+                new String[] {ADD_JOURNAL_COLUMN_ATTEMPTS});
+    }
+
+    /**
+     * Gets the statements creating the full-text index of the task texts, the document IDs are the task IDs.
+     * The triggers keep it in sync with every write, whichever way the tasks are changed.
+     *
+     * @param tokenizer The tokenizer, it must fold the case of the letters beyond ASCII
+     * @return The statements
+     */
+    public static String[] createSearch(String tokenizer) {
+        return new String[] {
+                "CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4(" + COLUMN_TASK + ", tokenize=" +
+                        tokenizer + ");",
+                "CREATE TRIGGER " + SEARCH_TRIGGER_NAMES[0] + " AFTER INSERT ON " + TABLE_TASKS + " BEGIN " +
+                        "INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_TASK + ") " +
+                        "VALUES (new." + COLUMN_ID + ", new." + COLUMN_TASK + "); END;",
+                "CREATE TRIGGER " + SEARCH_TRIGGER_NAMES[1] + " AFTER UPDATE OF " + COLUMN_TASK + " ON " +
+                        TABLE_TASKS + " BEGIN UPDATE " + TABLE_SEARCH + " SET " + COLUMN_TASK + " = new." +
+                        COLUMN_TASK + " WHERE docid = old." + COLUMN_ID + "; END;",
+                "CREATE TRIGGER " + SEARCH_TRIGGER_NAMES[2] + " AFTER DELETE ON " + TABLE_TASKS + " BEGIN " +
+                        "DELETE FROM " + TABLE_SEARCH + " WHERE docid = old." + COLUMN_ID + "; END;"
+        };
+    }
+
+    /**
+     * Builds the rank of a search match from its default <code>matchinfo()</code> blob, so the matches are
+     * ordered and limited by the query itself. The blob holds the phrase and column counts followed by
+     * the hits in this row, the hits in all the rows and the rows with a hit for every phrase and column;
+     * the rank is the sum of the hits in the row relative to the hits in all the rows. SQLite has no way
+     * to read an integer from a blob, so the bytes are read from its hex string in the native order.
+     *
+     * @param hexInfo The expression of the <code>hex(matchinfo())</code> string
+     * @param phraseCount The number of the phrases in the query, the index has a single column
+     * @return The rank expression, the greater the better
+     */
+    public static String getSearchRank(String hexInfo, int phraseCount) {
+        StringBuilder rank = new StringBuilder();
+        for (int i = 0; i < phraseCount; i++) {
+            rank.append(i > 0 ? " + " : "").append("CAST(").append(getBlobInt(hexInfo, 2 + i * 3)).
+                    append(" AS REAL) / ").append(getBlobInt(hexInfo, 3 + i * 3));
+        }
+
+        return rank.toString();
+    }
+
+    private static String getBlobInt(String hexInfo, int index) {
+        boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+        StringBuilder value = new StringBuilder("(");
+        for (int i = 0; i < 4; i++) {
+            // Every byte is two hex digits, the string positions start at 1.
+            int offset = (index * 4 + (littleEndian ? i : 3 - i)) * 2 + 1;
+            value.append(i > 0 ? " + " : "").append("((").append(getHexDigit(hexInfo, offset)).append(" << 4) + ").
+                    append(getHexDigit(hexInfo, offset + 1)).append(") << ").append(i * 8);
+        }
+
+        return value.append(")").toString();
+    }
+
+    private static String getHexDigit(String hexInfo, int offset) {
+        return "(INSTR('0123456789ABCDEF', SUBSTR(" + hexInfo + ", " + offset + ", 1)) - 1)";
+    }
+
+    /**
+     * Gets the key in the middle of the gap right above or below the target key.
+     *
+     * @param targetPosition The key of the target task
+     * @param neighbourPosition The closest key on the side of the move, null if the target is at the end
+     * @param up True to take the greater key
+     * @return The key, or null if the gap has run out
+     */
+    public static Long getMovePosition(long targetPosition, Long neighbourPosition, boolean up) {
+        if (neighbourPosition == null) {
+            return up ? targetPosition + POSITION_GAP : targetPosition - POSITION_GAP;
+        }
+
+        long gap = Math.abs(neighbourPosition - targetPosition);
+        if (gap < 2) {
+            return null;
+        }
+
+        return up ? targetPosition + gap / 2 : targetPosition - gap / 2;
+    }
+
+    /**
+     * Checks the plan of a hot query: it must search the list index, with no scan and no sort in a temporary
+     * tree. The plan is the details of the <code>EXPLAIN QUERY PLAN</code> rows joined together.
+     *
+     * @param plan The query plan
+     * @return True if the plan is served by the list index
+     */
+    public static boolean isIndexedPlan(String plan) {
+        return plan.contains(INDEX_LIST_POSITION) && !plan.contains("SCAN") && !plan.contains("TEMP B-TREE");
+    }
+
+    private static String[] concat(String[]... parts) {
+        int length = 0;
+        for (String[] part : parts) {
+            length += part.length;
+        }
+
+        String[] statements = new String[length];
+        int offset = 0;
+        for (String[] part : parts) {
+            System.arraycopy(part, 0, statements, offset, part.length);
+            offset += part.length;
+        }
+
+        return statements;
+    }
+}
@@ -0,0 +1,240 @@
+package com.nplusnapps.todolist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compact binary copy of the ordered list, so the list is shown on launch before the database is open.
+ * The copy is taken at the version of the list, see {@link DataProvider#COLUMN_VERSION}, and is current
+ * only while the list keeps the same version.
+ * The file holds the header, then a fixed size record per task in the list order: its ID, key and the
+ * offset and length of its text, then all the texts in UTF-8. The file is memory-mapped, so reading it
+ * copies nothing but the texts. A truncated or otherwise damaged file is ignored.
+ */
+public final class TaskSnapshot {
+
+    /**
+     * The largest list copied, the longer lists are paged anyway.
+     */
+    public static final int MAX_TASKS = 1000;
+
+    private static final int MAGIC = 0x54534E50;
+    private static final int FORMAT_VERSION = 1;
+    // The magic, format version, list ID, list version, task count and the length of the texts.
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 4;
+    // The ID, key, text offset and text length, the length is -1 for no text.
+    private static final int RECORD_SIZE = 4 + 8 + 4 + 4;
+
+    private static final String FILE_PREFIX = "tasks_";
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final String CHARSET = "UTF-8";
+
+    private final ByteBuffer mBuffer;
+    private final int mListId;
+    private final long mVersion;
+    private final int mSize;
+
+    private TaskSnapshot(ByteBuffer buffer, int listId, long version, int size) {
+        mBuffer = buffer;
+        mListId = listId;
+        mVersion = version;
+        mSize = size;
+    }
+
+    /**
+     * Gets the file holding the copy of the list.
+     *
+     * @param dir The directory, e.g. the cache one
+     * @param listId The list ID
+     * @return The file
+     */
+    public static File getFile(File dir, int listId) {
+        return new File(dir, FILE_PREFIX + listId + FILE_SUFFIX);
+    }
+
+    /**
+     * Maps the copy of the list.
+     *
+     * @param file The file
+     * @return The snapshot, or null if there's none or it's damaged
+     */
+    public static TaskSnapshot open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid once the file is closed.
+                FileChannel channel = input.getChannel();
+                return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the snapshot from the buffer, checking that all the records and texts are in it.
+     *
+     * @param buffer The buffer
+     * @return The snapshot, or null if the buffer is damaged
+     */
+    public static TaskSnapshot read(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            return null;
+        }
+
+        int listId = buffer.getInt(8);
+        long version = buffer.getLong(12);
+        int size = buffer.getInt(20);
+        int textLength = buffer.getInt(24);
+
+        if (size < 0 || size > MAX_TASKS || textLength < 0 ||
+                buffer.limit() != HEADER_SIZE + (long) size * RECORD_SIZE + textLength) {
+            return null;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            int offset = buffer.getInt(record + 12), length = buffer.getInt(record + 16);
+
+            if (length != -1 && (offset < 0 || length < 0 || offset > textLength - length)) {
+                return null;
+            }
+        }
+
+        return new TaskSnapshot(buffer, listId, version, size);
+    }
+
+    /**
+     * Writes the copy of the list. The new file replaces the old one only once it's complete,
+     * so the old copy is still read if the write fails.
+     *
+     * @param file The file
+     * @param listId The list ID
+     * @param version The version of the list the tasks have been read at, or before
+     * @param tasks The tasks in the list order, at most {@link #MAX_TASKS}
+     * @throws IOException If the file can't be written
+     */
+    public static void write(File file, int listId, long version, List<Task> tasks) throws IOException {
+        if (tasks.size() > MAX_TASKS) {
+            throw new IllegalArgumentException("Too many tasks: " + tasks.size());
+        }
+
+        byte[][] texts = new byte[tasks.size()][];
+        int textLength = 0;
+        for (int i = 0; i < texts.length; i++) {
+            String text = tasks.get(i).getText();
+            if (text != null) {
+                texts[i] = text.getBytes(CHARSET);
+                textLength += texts[i].length;
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(listId);
+            output.writeLong(version);
+            output.writeInt(tasks.size());
+            output.writeInt(textLength);
+
+            int offset = 0;
+            for (int i = 0; i < texts.length; i++) {
+                Task task = tasks.get(i);
+
+                output.writeInt(task.getId());
+                output.writeLong(task.getPosition());
+                output.writeInt(texts[i] != null ? offset : 0);
+                output.writeInt(texts[i] != null ? texts[i].length : -1);
+
+                if (texts[i] != null) {
+                    offset += texts[i].length;
+                }
+            }
+
+            for (byte[] text : texts) {
+                if (text != null) {
+                    output.write(text);
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    public int getListId() {
+        return mListId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Decodes the task.
+     *
+     * @param index The index of the task in the list order
+     * @return The task
+     */
+    public Task get(int index) {
+        int record = HEADER_SIZE + index * RECORD_SIZE;
+        int offset = mBuffer.getInt(record + 12), length = mBuffer.getInt(record + 16);
+
+        String text = null;
+        if (length != -1) {
+            byte[] bytes = new byte[length];
+            // A duplicate keeps the position of the shared buffer intact.
+            ByteBuffer textBuffer = mBuffer.duplicate();
+            textBuffer.position(HEADER_SIZE + mSize * RECORD_SIZE + offset);
+            textBuffer.get(bytes);
+
+            try {
+                text = new String(bytes, CHARSET);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return new Task(mBuffer.getInt(record), mBuffer.getLong(record + 4), text);
+    }
+
+    /**
+     * Decodes all the tasks.
+     *
+     * @return The tasks in the list order
+     */
+    public List<Task> getTasks() {
+        List<Task> tasks = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            tasks.add(get(i));
+        }
+
+        return tasks;
+    }
+}
@@ -0,0 +1,169 @@
+package com.nplusnapps.todolist;
+
+import android.content.res.Resources;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The cache of the row texts prepared off the main thread for the rows around the visible ones.
+ * The position labels and hints are formatted, so the bind only looks them up. The task texts are measured
+ * with the row's paint, which fills the framework's text layout cache, so the layout pass of a long text
+ * doesn't shape its glyphs on the main thread. A label missing from the cache is formatted right away.
+ * All the methods are thread safe.
+ */
+public class TaskTextCache {
+
+    /**
+     * The number of the rows prepared above and below the visible ones.
+     */
+    public static final int PREFETCH_MARGIN = 30;
+
+    private static final int MAX_LABELS = 256;
+    private static final int MAX_TEXTS = 256;
+
+    private static final String METRIC_PREFETCH = "adapter.prefetch";
+    private static final String METRIC_LABEL_MISS = "adapter.label.miss";
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private final Resources mResources;
+    // The label and the hint of the row, by its position.
+    private final LruCache<Integer, String[]> mLabels = new LruCache<>(MAX_LABELS);
+    // The measured width of the text.
+    private final LruCache<String, Float> mTexts = new LruCache<>(MAX_TEXTS);
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile TextPaint mPaint;
+
+    /**
+     * Constructs a new instance of the cache.
+     *
+     * @param resources The resources to format the hints with
+     */
+    public TaskTextCache(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * Sets the paint the task texts are drawn with. The paint is copied, as it's used on another thread.
+     *
+     * @param paint The paint
+     */
+    public void setPaint(TextPaint paint) {
+        mPaint = new TextPaint(paint);
+    }
+
+    /**
+     * Gets the label of the row, i.e. its number.
+     *
+     * @param position The row position
+     * @return The label
+     */
+    public String getLabel(int position) {
+        return getLabels(position)[0];
+    }
+
+    /**
+     * Gets the hint of the empty task in the row.
+     *
+     * @param position The row position
+     * @return The hint
+     */
+    public String getHint(int position) {
+        return getLabels(position)[1];
+    }
+
+    /**
+     * Checks whether the text has been measured ahead of its bind.
+     *
+     * @param text The task text
+     * @return True if the text is in the cache
+     */
+    public boolean isMeasured(String text) {
+        return mTexts.get(text) != null;
+    }
+
+    /**
+     * Prepares the rows around the visible ones on the background thread. The pending preparation
+     * is dropped, as its rows are likely out of sight by now. Must be called on the main thread.
+     *
+     * @param tasks The tasks, the paged ones are left out to not load their pages
+     * @param first The position of the first visible row
+     * @param last The position of the last visible row
+     */
+    public void prefetch(List<Task> tasks, int first, int last) {
+        int start = Math.max(first - PREFETCH_MARGIN, 0);
+        int end = Math.min(Math.max(last, first) + PREFETCH_MARGIN + 1, tasks.size());
+
+        final List<Integer> positions = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+
+        for (int i = start; i < end; i++) {
+            if (mLabels.get(i) == null) {
+                positions.add(i);
+            }
+
+            if (!(tasks instanceof PagedTaskList)) {
+                String text = tasks.get(i).getText();
+                if (text != null && !text.isEmpty() && mTexts.get(text) == null) {
+                    texts.add(text);
+                }
+            }
+        }
+
+        if (positions.isEmpty() && texts.isEmpty()) {
+            return;
+        }
+
+        final int generation = mGeneration.incrementAndGet();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = Metrics.startTimer();
+
+                for (int position : positions) {
+                    if (generation != mGeneration.get()) {
+                        return;
+                    }
+                    mLabels.put(position, formatLabels(position));
+                }
+
+                TextPaint paint = mPaint;
+                if (paint != null) {
+                    for (String text : texts) {
+                        if (generation != mGeneration.get()) {
+                            return;
+                        }
+                        mTexts.put(text, Layout.getDesiredWidth(text, paint));
+                    }
+                }
+
+                Metrics.stopTimer(METRIC_PREFETCH, startTime);
+            }
+        });
+    }
+
+    private String[] getLabels(int position) {
+        String[] labels = mLabels.get(position);
+        if (labels == null) {
+            Metrics.increment(METRIC_LABEL_MISS);
+
+            labels = formatLabels(position);
+            mLabels.put(position, labels);
+        }
+
+        return labels;
+    }
+
+    private String[] formatLabels(int position) {
+        int number = position + 1;
+        return new String[] {String.valueOf(number), mResources.getString(R.string.hint_task, number)};
+    }
+}
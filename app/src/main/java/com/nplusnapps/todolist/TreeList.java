@@ -0,0 +1,338 @@
+package com.nplusnapps.todolist;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The list kept in a balanced (AVL) tree where every node knows the size of its subtree, so the item
+ * at any index is found, inserted or removed in O(log n) and nothing is shifted. It backs the adapter,
+ * which moves a single item on every drag step and removes the swiped ones by their positions.
+ * The get is O(log n) as well, the iterator walks the tree in order and takes O(1) per item.
+ * It's not thread safe.
+ *
+ * @param <E> The item type
+ */
+public class TreeList<E> extends AbstractList<E> {
+
+    private Node<E> mRoot;
+
+    /**
+     * Constructs a new empty list.
+     */
+    public TreeList() {
+    }
+
+    /**
+     * Constructs a new list holding the items of the collection in its iteration order.
+     *
+     * @param items The items
+     */
+    public TreeList(Collection<? extends E> items) {
+        addAll(items);
+    }
+
+    @Override
+    public E get(int index) {
+        checkIndex(index, size());
+
+        return find(mRoot, index).mValue;
+    }
+
+    @Override
+    public E set(int index, E element) {
+        checkIndex(index, size());
+
+        Node<E> node = find(mRoot, index);
+        E oldValue = node.mValue;
+        node.mValue = element;
+
+        return oldValue;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkIndex(index, size() + 1);
+
+        mRoot = insert(mRoot, index, element);
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        checkIndex(index, size());
+
+        Node<E> node = find(mRoot, index);
+        mRoot = delete(mRoot, index);
+        modCount++;
+
+        return node.mValue;
+    }
+
+    /**
+     * Adds the items at the end. The empty list is built in O(n) as a perfectly balanced tree.
+     *
+     * @param items The items
+     * @return True if the list has changed
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> items) {
+        if (mRoot != null) {
+            return super.addAll(items);
+        }
+
+        Object[] values = items.toArray();
+        if (values.length == 0) {
+            return false;
+        }
+
+        mRoot = build(values, 0, values.length);
+        modCount++;
+
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mRoot = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size(mRoot);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new TreeIterator();
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    private static <E> Node<E> find(Node<E> node, int index) {
+        while (true) {
+            int leftSize = size(node.mLeft);
+            if (index < leftSize) {
+                node = node.mLeft;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.mRight;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private static <E> Node<E> insert(Node<E> node, int index, E element) {
+        if (node == null) {
+            return new Node<>(element);
+        }
+
+        int leftSize = size(node.mLeft);
+        if (index <= leftSize) {
+            node.mLeft = insert(node.mLeft, index, element);
+        } else {
+            node.mRight = insert(node.mRight, index - leftSize - 1, element);
+        }
+
+        return balance(node);
+    }
+
+    private static <E> Node<E> delete(Node<E> node, int index) {
+        int leftSize = size(node.mLeft);
+        if (index < leftSize) {
+            node.mLeft = delete(node.mLeft, index);
+        } else if (index > leftSize) {
+            node.mRight = delete(node.mRight, index - leftSize - 1);
+        } else {
+            if (node.mLeft == null || node.mRight == null) {
+                return node.mLeft != null ? node.mLeft : node.mRight;
+            }
+
+            // The node takes the place of its successor, the first node of the right subtree.
+            Node<E> successor = node.mRight;
+            while (successor.mLeft != null) {
+                successor = successor.mLeft;
+            }
+            successor.mRight = delete(node.mRight, 0);
+            successor.mLeft = node.mLeft;
+            node = successor;
+        }
+
+        return balance(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E> build(Object[] values, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        int middle = (start + end) >>> 1;
+        Node<E> node = new Node<>((E) values[middle]);
+        node.mLeft = build(values, start, middle);
+        node.mRight = build(values, middle + 1, end);
+        node.update();
+
+        return node;
+    }
+
+    private static <E> Node<E> balance(Node<E> node) {
+        node.update();
+
+        int factor = height(node.mLeft) - height(node.mRight);
+        if (factor > 1) {
+            if (height(node.mLeft.mLeft) < height(node.mLeft.mRight)) {
+                node.mLeft = rotateLeft(node.mLeft);
+            }
+            return rotateRight(node);
+        } else if (factor < -1) {
+            if (height(node.mRight.mRight) < height(node.mRight.mLeft)) {
+                node.mRight = rotateRight(node.mRight);
+            }
+            return rotateLeft(node);
+        }
+
+        return node;
+    }
+
+    private static <E> Node<E> rotateLeft(Node<E> node) {
+        Node<E> right = node.mRight;
+        node.mRight = right.mLeft;
+        right.mLeft = node;
+
+        node.update();
+        right.update();
+
+        return right;
+    }
+
+    private static <E> Node<E> rotateRight(Node<E> node) {
+        Node<E> left = node.mLeft;
+        node.mLeft = left.mRight;
+        left.mRight = node;
+
+        node.update();
+        left.update();
+
+        return left;
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.mSize : 0;
+    }
+
+    private static int height(Node<?> node) {
+        return node != null ? node.mHeight : 0;
+    }
+
+    /**
+     * The node holds the item and the size and height of its subtree.
+     */
+    private static class Node<E> {
+
+        E mValue;
+        Node<E> mLeft, mRight;
+        int mSize = 1, mHeight = 1;
+
+        Node(E value) {
+            mValue = value;
+        }
+
+        void update() {
+            mSize = size(mLeft) + size(mRight) + 1;
+            mHeight = Math.max(height(mLeft), height(mRight)) + 1;
+        }
+    }
+
+    /**
+     * The iterator keeps the path to the next node, so it doesn't search the tree for every item.
+     * The removal searches it once again, as the rebalancing may have changed the path.
+     */
+    private class TreeIterator implements Iterator<E> {
+
+        private final Deque<Node<E>> mPath = new ArrayDeque<>();
+        private int mNextIndex, mLastIndex = -1, mExpectedModCount;
+
+        TreeIterator() {
+            seek(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNextIndex < size();
+        }
+
+        @Override
+        public E next() {
+            if (modCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (mPath.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            Node<E> node = mPath.pop();
+            pushLeft(node.mRight);
+
+            mLastIndex = mNextIndex++;
+
+            return node.mValue;
+        }
+
+        @Override
+        public void remove() {
+            if (mLastIndex == -1) {
+                throw new IllegalStateException();
+            }
+            if (modCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            TreeList.this.remove(mLastIndex);
+
+            mNextIndex = mLastIndex;
+            mLastIndex = -1;
+            seek(mNextIndex);
+        }
+
+        /**
+         * Rebuilds the path to the node at the index: the nodes whose left subtree holds it, and the node itself.
+         */
+        private void seek(int index) {
+            mPath.clear();
+            mExpectedModCount = modCount;
+
+            Node<E> node = mRoot;
+            while (node != null) {
+                int leftSize = size(node.mLeft);
+                if (index < leftSize) {
+                    mPath.push(node);
+                    node = node.mLeft;
+                } else if (index > leftSize) {
+                    index -= leftSize + 1;
+                    node = node.mRight;
+                } else {
+                    mPath.push(node);
+                    break;
+                }
+            }
+        }
+
+        private void pushLeft(Node<E> node) {
+            while (node != null) {
+                mPath.push(node);
+                node = node.mLeft;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nplusnapps.todolist;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskListSorterTest {
+
+    @Test
+    public void sortsValidChain() {
+        // The chain 3 <- 1 <- 4 <- 2, i.e. 3 is the head and 2 is the tail, stored out of order.
+        int[] ids = {1, 2, 3, 4};
+        int[] previousIds = {3, 4, 0, 1};
+        int[] nextIds = {4, 0, 1, 2};
+
+        TaskListSorter.Result result = TaskListSorter.sort(ids, previousIds, nextIds);
+
+        assertArrayEquals(new int[] {1, 3, 0, 2}, result.getOrder());
+        assertEquals(0, result.getOrphanIds().length);
+        assertFalse(result.hasCycle());
+        assertTrue(result.isConsistent());
+    }
+
+    @Test
+    public void sortsEmptyList() {
+        TaskListSorter.Result result = TaskListSorter.sort(new int[0], new int[0], new int[0]);
+
+        assertEquals(0, result.getOrder().length);
+        assertEquals(0, result.getOrphanIds().length);
+        assertTrue(result.isConsistent());
+    }
+
+    @Test
+    public void reportsOrphans() {
+        // The row 3 points to a missing row, so the rows above it can't be reached from the tail.
+        int[] ids = {1, 2, 3, 4, 5};
+        int[] previousIds = {0, 1, 9, 3, 0};
+        int[] nextIds = {2, 0, 4, 0, 0};
+
+        TaskListSorter.Result result = TaskListSorter.sort(ids, previousIds, nextIds);
+
+        assertArrayEquals(new int[] {1, 0}, result.getOrder());
+        int[] orphanIds = result.getOrphanIds();
+        Arrays.sort(orphanIds);
+        assertArrayEquals(new int[] {3, 4, 5}, orphanIds);
+        assertFalse(result.hasCycle());
+        assertFalse(result.isConsistent());
+    }
+
+    @Test
+    public void reportsCycle() {
+        // The tail 1 leads into the loop 2 -> 3 -> 2.
+        int[] ids = {1, 2, 3};
+        int[] previousIds = {2, 3, 2};
+        int[] nextIds = {0, 1, 2};
+
+        TaskListSorter.Result result = TaskListSorter.sort(ids, previousIds, nextIds);
+
+        assertArrayEquals(new int[] {0, 1, 2}, result.getOrder());
+        assertEquals(0, result.getOrphanIds().length);
+        assertTrue(result.hasCycle());
+        assertFalse(result.isConsistent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArraysOfDifferentLengths() {
+        TaskListSorter.sort(new int[2], new int[2], new int[1]);
+    }
+
+    @Test
+    public void sorts1kChain() {
+        sortShuffledChain(1000);
+    }
+
+    @Test
+    public void sorts10kChain() {
+        sortShuffledChain(10000);
+    }
+
+    @Test
+    public void sorts100kChain() {
+        sortShuffledChain(100000);
+    }
+
+    /**
+     * Sorts the chain of the provided size stored in a random order and checks the order.
+     */
+    private static void sortShuffledChain(int size) {
+        // The task with the ID i + 1 is at the display position i, the head being the first one.
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+
+        Random random = new Random(42);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+
+        int[] ids = new int[size];
+        int[] previousIds = new int[size];
+        int[] nextIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            int id = rows[i] + 1;
+            ids[i] = id;
+            previousIds[i] = id > 1 ? id - 1 : 0;
+            nextIds[i] = id < size ? id + 1 : 0;
+        }
+
+        TaskListSorter.Result result = TaskListSorter.sort(ids, previousIds, nextIds);
+
+        assertTrue(result.isConsistent());
+
+        int[] order = result.getOrder();
+        assertEquals(size, order.length);
+        for (int i = 0; i < size; i++) {
+            // The order starts from the tail.
+            assertEquals(size - i, ids[order[i]]);
+        }
+    }
+}
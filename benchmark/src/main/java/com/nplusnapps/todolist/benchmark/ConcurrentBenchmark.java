@@ -0,0 +1,112 @@
+package com.nplusnapps.todolist.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the page reads of the list while the service is writing to it, as the screen scrolls
+ * during a sync. The writer and the readers have their own connections to the same database file
+ * in the WAL mode, so the readers are expected to read on while the writer commits.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    // The database file seeded once for all the threads of the group.
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("tasks", ".db");
+
+        TaskDatabase database = new TaskDatabase(getUrl());
+        try {
+            database.seed(size);
+        } finally {
+            database.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // The log and its index lie next to the database file, they go with it.
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            new File(mFile.getPath() + suffix).delete();
+        }
+    }
+
+    /**
+     * The connection of a single thread, either the writer or a reader.
+     */
+    @State(Scope.Thread)
+    public static class ThreadDatabase {
+
+        private TaskDatabase mDatabase;
+        private Random mRandom;
+        private int mSize;
+
+        @Setup(Level.Iteration)
+        public void setUp(ConcurrentBenchmark benchmark) throws SQLException {
+            mDatabase = new TaskDatabase(benchmark.getUrl());
+            mRandom = new Random(Thread.currentThread().getId());
+            mSize = benchmark.size;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws SQLException {
+            mDatabase.close();
+        }
+
+        private int randomId() {
+            return mRandom.nextInt(mSize) + 1;
+        }
+    }
+
+    private String getUrl() {
+        return "jdbc:sqlite:" + mFile.getPath();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public boolean move(ThreadDatabase database) throws SQLException {
+        // The moves keep the list size, so the pages stay full.
+        return database.mDatabase.moveTask(database.randomId(), database.randomId(),
+                database.mRandom.nextBoolean());
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public long readPageByKey(ThreadDatabase database) throws SQLException {
+        return database.mDatabase.readPageBefore(database.randomId() * TaskDatabase.POSITION_GAP, PAGE_SIZE);
+    }
+}
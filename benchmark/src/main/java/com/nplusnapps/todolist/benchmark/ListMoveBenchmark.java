@@ -0,0 +1,106 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.Task;
+import com.nplusnapps.todolist.TreeList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the list mutations the adapter makes on the main thread: a drag step moving the item to
+ * the next position, a long jump and a swipe followed by an insert. The array list shifts the items
+ * on every mutation, the tree list doesn't. The bind reads the items by their positions, so the get is measured too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListMoveBenchmark {
+
+    private static final int RANDOM_COUNT = 4096;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"array", "tree"})
+    public String list;
+
+    private List<Task> mList;
+    private int[] mRandomPositions;
+    private int mNext, mDragPosition;
+
+    @Setup
+    public void setUp() {
+        List<Task> tasks = new ArrayList<>(size + 1);
+        for (int i = 0; i < size; i++) {
+            tasks.add(new Task(i + 1, (size - i) * TaskDatabase.POSITION_GAP, "Task " + (i + 1)));
+        }
+
+        mList = list.equals("tree") ? new TreeList<>(tasks) : tasks;
+
+        Random random = new Random(42);
+        mRandomPositions = new int[RANDOM_COUNT];
+        for (int i = 0; i < RANDOM_COUNT; i++) {
+            mRandomPositions[i] = random.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public Task dragStep() {
+        // The item is dragged down through the list and starts over from the top.
+        int fromPosition = mDragPosition;
+        int toPosition = fromPosition + 1 < size ? fromPosition + 1 : 0;
+        mDragPosition = toPosition;
+
+        return move(fromPosition, toPosition);
+    }
+
+    @Benchmark
+    public Task jump() {
+        return move(nextPosition(), nextPosition());
+    }
+
+    @Benchmark
+    public Task get() {
+        return mList.get(nextPosition());
+    }
+
+    @Benchmark
+    public Task dismissAndInsert() {
+        Task task = mList.remove(nextPosition());
+        mList.add(nextPosition(), task);
+
+        return task;
+    }
+
+    /**
+     * Moves the item the way <code>RecyclerListAdapter.onItemMove()</code> does.
+     */
+    private Task move(int fromPosition, int toPosition) {
+        Task selectedItem = mList.remove(fromPosition);
+        mList.add(toPosition > fromPosition ? toPosition - 1 : toPosition, selectedItem);
+
+        return selectedItem;
+    }
+
+    private int nextPosition() {
+        mNext = (mNext + 1) & (RANDOM_COUNT - 1);
+        return mRandomPositions[mNext];
+    }
+}
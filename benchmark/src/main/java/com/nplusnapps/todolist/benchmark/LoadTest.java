@@ -0,0 +1,303 @@
+package com.nplusnapps.todolist.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The load test drives the provider's statements with the synthetic workloads on a file database:
+ * the bulk seed, random moves one by one and in batches, swipe-delete bursts and the sweep of their tombstones,
+ * edit storms and scrolling through the pages.
+ * It reports the p50 and p99 latency, the executed statements and the commits per action, and exits with
+ * a non-zero status if any p99 latency exceeds its threshold.
+ * The thresholds in milliseconds can be overridden with the <code>loadtest.p99.&lt;action&gt;</code>
+ * system properties.
+ */
+public class LoadTest {
+
+    private static final int MOVE_COUNT = 2000;
+    private static final int MOVE_BATCH_SIZE = 10;
+    private static final int BURST_COUNT = 200;
+    private static final int BURST_SIZE = 10;
+    private static final int EDIT_COUNT = 5000;
+    private static final int EDITED_TASK_COUNT = 20;
+    private static final int PAGE_SIZE = 100;
+
+    private static final Map<String, Double> DEFAULT_THRESHOLDS = new LinkedHashMap<>();
+
+    static {
+        // The bulk seed and the sweep are reported only, their time grows with the list size.
+        DEFAULT_THRESHOLDS.put("add", 4.0);
+        DEFAULT_THRESHOLDS.put("move", 8.0);
+        DEFAULT_THRESHOLDS.put("batch", 16.0);
+        DEFAULT_THRESHOLDS.put("burst", 16.0);
+        // The edit updates the full-text index too.
+        DEFAULT_THRESHOLDS.put("edit", 12.0);
+        DEFAULT_THRESHOLDS.put("page", 8.0);
+    }
+
+    private final Random mRandom = new Random(42);
+    private final Map<String, Recorder> mRecorders = new LinkedHashMap<>();
+    private TaskDatabase mDatabase;
+    private int[] mIds;
+    private int mIdCount;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[] {10000, 100000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        boolean passed = true;
+        for (int size : sizes) {
+            passed &= new LoadTest().run(size);
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs all the workloads against a new database holding the list of the provided size.
+     *
+     * @param size The task count
+     * @return True if all the thresholds have been met
+     * @throws SQLException If a statement has failed
+     * @throws IOException If the database file can't be created
+     */
+    public boolean run(int size) throws SQLException, IOException {
+        File file = File.createTempFile("loadtest", ".db");
+        mDatabase = new TaskDatabase("jdbc:sqlite:" + file.getAbsolutePath());
+        try {
+            seed(size);
+            moveRandomly();
+            moveInBatches();
+            swipeInBursts();
+            sweep();
+            editInStorms();
+            scrollThroughPages();
+        } finally {
+            mDatabase.close();
+
+            deleteDatabase(file);
+        }
+
+        System.out.println(String.format(Locale.US, "%n%d tasks, %d statements", size, mDatabase.getStatementCount()));
+        System.out.println(String.format(Locale.US, "%-8s %8s %10s %10s %10s %12s %8s %8s",
+                "action", "count", "p50 ms", "p99 ms", "max ms", "statements", "commits", "result"));
+
+        boolean passed = true;
+        for (Map.Entry<String, Recorder> entry : mRecorders.entrySet()) {
+            Recorder recorder = entry.getValue();
+            Double threshold = getThreshold(entry.getKey());
+
+            boolean actionPassed = threshold == null || recorder.getPercentile(0.99) <= threshold;
+            passed &= actionPassed;
+
+            System.out.println(String.format(Locale.US, "%-8s %8d %10.3f %10.3f %10.3f %12d %8d %8s",
+                    entry.getKey(), recorder.getCount(), recorder.getPercentile(0.5), recorder.getPercentile(0.99),
+                    recorder.getPercentile(1), recorder.getStatementCount(), recorder.getCommitCount(),
+                    threshold == null ? "-" : (actionPassed ? "ok" : "FAILED")));
+        }
+
+        return passed;
+    }
+
+    private void seed(int size) throws SQLException {
+        Recorder recorder = start("seed");
+        mDatabase.seed(size);
+        recorder.stop();
+
+        mIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            mIds[i] = i + 1;
+        }
+        mIdCount = size;
+    }
+
+    private void moveRandomly() throws SQLException {
+        for (int i = 0; i < MOVE_COUNT; i++) {
+            int selectedId = randomId(), targetId = randomId();
+            boolean up = mRandom.nextBoolean();
+
+            Recorder recorder = start("move");
+            mDatabase.moveTask(selectedId, targetId, up);
+            recorder.stop();
+        }
+    }
+
+    private void moveInBatches() throws SQLException {
+        // The same number of moves as one by one, each batch is committed once as the service does.
+        for (int i = 0; i < MOVE_COUNT / MOVE_BATCH_SIZE; i++) {
+            int[] selectedIds = new int[MOVE_BATCH_SIZE], targetIds = new int[MOVE_BATCH_SIZE];
+            boolean[] up = new boolean[MOVE_BATCH_SIZE];
+            for (int j = 0; j < MOVE_BATCH_SIZE; j++) {
+                selectedIds[j] = randomId();
+                targetIds[j] = randomId();
+                up[j] = mRandom.nextBoolean();
+            }
+
+            Recorder recorder = start("batch");
+            mDatabase.moveTasks(selectedIds, targetIds, up);
+            recorder.stop();
+        }
+    }
+
+    private void swipeInBursts() throws SQLException {
+        for (int i = 0; i < BURST_COUNT; i++) {
+            int[] ids = new int[BURST_SIZE];
+            for (int j = 0; j < BURST_SIZE; j++) {
+                ids[j] = removeRandomId();
+            }
+
+            Recorder recorder = start("burst");
+            mDatabase.deleteTasks(ids);
+            recorder.stop();
+
+            // The list is refilled, so every burst runs against the same size.
+            for (int j = 0; j < BURST_SIZE; j++) {
+                Recorder addRecorder = start("add");
+                int id = mDatabase.addTask("New task " + j);
+                addRecorder.stop();
+
+                mIds[mIdCount++] = id;
+            }
+        }
+    }
+
+    private void sweep() throws SQLException {
+        Recorder recorder = start("sweep");
+        mDatabase.purgeTasks(Long.MAX_VALUE);
+        recorder.stop();
+    }
+
+    private void editInStorms() throws SQLException {
+        int[] editedIds = new int[EDITED_TASK_COUNT];
+        for (int i = 0; i < EDITED_TASK_COUNT; i++) {
+            editedIds[i] = randomId();
+        }
+
+        // Every keystroke is written, i.e. the worst case with no edits coalesced.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            text.append((char) ('a' + i % 26));
+
+            Recorder recorder = start("edit");
+            mDatabase.editTask(editedIds[i % EDITED_TASK_COUNT], text.toString());
+            recorder.stop();
+        }
+    }
+
+    private void scrollThroughPages() throws SQLException {
+        long lastPosition = Long.MAX_VALUE;
+        for (int i = 0; i < mIdCount / PAGE_SIZE; i++) {
+            Recorder recorder = start("page");
+            lastPosition = mDatabase.readPageBefore(lastPosition, PAGE_SIZE);
+            recorder.stop();
+        }
+    }
+
+    private int randomId() {
+        return mIds[mRandom.nextInt(mIdCount)];
+    }
+
+    private int removeRandomId() {
+        int index = mRandom.nextInt(mIdCount);
+        int id = mIds[index];
+        mIds[index] = mIds[--mIdCount];
+
+        return id;
+    }
+
+    private Recorder start(String action) {
+        Recorder recorder = mRecorders.get(action);
+        if (recorder == null) {
+            recorder = new Recorder(mDatabase);
+            mRecorders.put(action, recorder);
+        }
+
+        recorder.start();
+        return recorder;
+    }
+
+    private static Double getThreshold(String action) {
+        String value = System.getProperty("loadtest.p99." + action);
+        return value != null ? Double.valueOf(value) : DEFAULT_THRESHOLDS.get(action);
+    }
+
+    private static void deleteDatabase(File file) {
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            File journal = new File(file.getPath() + suffix);
+            if (journal.exists() && !journal.delete()) {
+                System.err.println("Unable to delete " + journal);
+            }
+        }
+    }
+
+    /**
+     * The recorder keeps the latencies of a single action and the statements and commits it has executed.
+     */
+    private static class Recorder {
+
+        private final TaskDatabase mDatabase;
+        private final List<Long> mSamples = new ArrayList<>();
+        private long mStartTime, mStartStatements, mStatementCount, mStartCommits, mCommitCount;
+        private long[] mSorted;
+
+        Recorder(TaskDatabase database) {
+            mDatabase = database;
+        }
+
+        void start() {
+            mStartStatements = mDatabase.getStatementCount();
+            mStartCommits = mDatabase.getCommitCount();
+            mStartTime = System.nanoTime();
+        }
+
+        void stop() {
+            mSamples.add(System.nanoTime() - mStartTime);
+            mStatementCount += mDatabase.getStatementCount() - mStartStatements;
+            mCommitCount += mDatabase.getCommitCount() - mStartCommits;
+            mSorted = null;
+        }
+
+        int getCount() {
+            return mSamples.size();
+        }
+
+        long getStatementCount() {
+            return mStatementCount;
+        }
+
+        long getCommitCount() {
+            return mCommitCount;
+        }
+
+        /**
+         * Gets the latency at the provided percentile using the nearest rank.
+         *
+         * @param percentile The percentile, from 0 to 1
+         * @return The latency in milliseconds
+         */
+        double getPercentile(double percentile) {
+            if (mSorted == null) {
+                mSorted = new long[mSamples.size()];
+                for (int i = 0; i < mSorted.length; i++) {
+                    mSorted[i] = mSamples.get(i);
+                }
+                Arrays.sort(mSorted);
+            }
+
+            int rank = (int) Math.ceil(percentile * mSorted.length);
+            return mSorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.nplusnapps.todolist.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the writes the service makes for every command and the page reads of the list,
+ * against the embedded SQLite seeded with the list of the provided size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private TaskDatabase mDatabase;
+    private Random mRandom;
+    private int[] mIds;
+    private int mIdCount;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException {
+        mDatabase = new TaskDatabase();
+        mDatabase.seed(size);
+        mRandom = new Random(42);
+
+        mIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            mIds[i] = i + 1;
+        }
+        mIdCount = size;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int add() throws SQLException {
+        return mDatabase.addTask("New task");
+    }
+
+    @Benchmark
+    public boolean move() throws SQLException {
+        return mDatabase.moveTask(randomId(), randomId(), mRandom.nextBoolean());
+    }
+
+    @Benchmark
+    public void edit() throws SQLException {
+        mDatabase.editTask(randomId(), "Edited task");
+    }
+
+    @Benchmark
+    public int deleteAndAdd() throws SQLException {
+        // The list keeps its size, the deleted task is replaced with a new one on top.
+        int index = mRandom.nextInt(mIdCount);
+        mDatabase.deleteTask(mIds[index]);
+
+        mIds[index] = mDatabase.addTask("New task");
+        return mIds[index];
+    }
+
+    @Benchmark
+    public long readPageByOffset() throws SQLException {
+        return mDatabase.readPage(size / 2, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long readPageByKey() throws SQLException {
+        return mDatabase.readPageBefore((size / 2) * TaskDatabase.POSITION_GAP, PAGE_SIZE);
+    }
+
+    private int randomId() {
+        return mIds[mRandom.nextInt(mIdCount)];
+    }
+}
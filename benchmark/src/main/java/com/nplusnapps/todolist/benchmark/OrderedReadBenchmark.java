@@ -0,0 +1,75 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.Task;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the whole list in the list order: served by the index as the ordered URI does,
+ * against reading the rows in the ID order and sorting them in memory as the app did before.
+ * The keys are shuffled, so the ID order is far from the list order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderedReadBenchmark {
+
+    private static final Comparator<Task> LIST_ORDER = new Comparator<Task>() {
+
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            // The greater keys come first.
+            return Long.compare(rhs.getPosition(), lhs.getPosition());
+        }
+    };
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private TaskDatabase mDatabase;
+
+    @Setup
+    public void setUp() throws SQLException {
+        mDatabase = new TaskDatabase();
+        mDatabase.seed(size);
+        mDatabase.shuffle(42);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public List<Task> readOrdered() throws SQLException {
+        return mDatabase.readList();
+    }
+
+    @Benchmark
+    public List<Task> readAndSort() throws SQLException {
+        List<Task> tasks = mDatabase.readListById();
+        Collections.sort(tasks, LIST_ORDER);
+
+        return tasks;
+    }
+}
@@ -0,0 +1,40 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.TaskSchema;
+
+import java.sql.SQLException;
+
+/**
+ * The check of the hot query plans: every query of {@link TaskSchema#HOT_QUERIES} must be served by
+ * the list index, with no scan of the table and no sort, see {@link TaskSchema#isIndexedPlan(String)}.
+ * The queries are explained on the seeded database, the same check the provider logs on the device.
+ * It exits with a non-zero status if any plan fails.
+ */
+public class QueryPlanCheck {
+
+    private static final int TASK_COUNT = 10000;
+
+    public static void main(String[] args) throws SQLException {
+        boolean passed = true;
+
+        TaskDatabase database = new TaskDatabase();
+        try {
+            database.seed(TASK_COUNT);
+
+            for (String query : TaskSchema.HOT_QUERIES) {
+                String plan = database.explainQueryPlan(query);
+                boolean indexed = TaskSchema.isIndexedPlan(plan);
+                passed &= indexed;
+
+                System.out.println((indexed ? "ok      " : "FAILED  ") + query);
+                System.out.println("        " + plan);
+            }
+        } finally {
+            database.close();
+        }
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+}
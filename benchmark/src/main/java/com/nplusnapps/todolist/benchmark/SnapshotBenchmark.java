@@ -0,0 +1,86 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.Task;
+import com.nplusnapps.todolist.TaskSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the launch waits for before the list is shown: opening the database file and reading
+ * the whole list, against mapping the snapshot of the same list and decoding it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private File mDatabaseFile, mSnapshotFile;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        mDatabaseFile = File.createTempFile("snapshot", ".db");
+
+        TaskDatabase database = new TaskDatabase("jdbc:sqlite:" + mDatabaseFile.getAbsolutePath());
+        try {
+            database.seed(size);
+        } finally {
+            database.close();
+        }
+
+        // The seeded tasks in the list order, the greatest key first.
+        List<Task> tasks = new ArrayList<>(size);
+        for (int i = size; i > 0; i--) {
+            tasks.add(new Task(i, i * TaskDatabase.POSITION_GAP, "Task " + i));
+        }
+
+        mSnapshotFile = File.createTempFile("snapshot", ".snapshot");
+        TaskSnapshot.write(mSnapshotFile, TaskDatabase.DEFAULT_LIST_ID, 0, tasks);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : new File[] {mDatabaseFile, new File(mDatabaseFile.getPath() + "-wal"),
+                new File(mDatabaseFile.getPath() + "-shm"), mSnapshotFile}) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public long readDatabase() throws SQLException {
+        TaskDatabase database = new TaskDatabase("jdbc:sqlite:" + mDatabaseFile.getAbsolutePath());
+        try {
+            return database.readPage(0, size);
+        } finally {
+            database.close();
+        }
+    }
+
+    @Benchmark
+    public List<Task> readSnapshot() {
+        return TaskSnapshot.open(mSnapshotFile).getTasks();
+    }
+}
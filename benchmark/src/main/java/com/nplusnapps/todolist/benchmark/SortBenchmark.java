@@ -0,0 +1,68 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.TaskListSorter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restoring the order of the linked task rows, as the database migration does it.
+ * The rows come in the ID order, while the chain goes through them in a random order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private int[] mIds, mPreviousIds, mNextIds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        // The chain order is a random permutation of the IDs.
+        int[] chain = new int[size];
+        for (int i = 0; i < size; i++) {
+            chain[i] = i + 1;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int id = chain[i];
+            chain[i] = chain[j];
+            chain[j] = id;
+        }
+
+        mIds = new int[size];
+        mPreviousIds = new int[size];
+        mNextIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = chain[i] - 1;
+            mIds[row] = chain[i];
+            mPreviousIds[row] = i > 0 ? chain[i - 1] : 0;
+            mNextIds[row] = i < size - 1 ? chain[i + 1] : 0;
+        }
+    }
+
+    @Benchmark
+    public TaskListSorter.Result sort() {
+        return TaskListSorter.sort(mIds, mPreviousIds, mNextIds);
+    }
+}
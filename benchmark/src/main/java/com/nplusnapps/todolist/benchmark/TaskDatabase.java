@@ -0,0 +1,539 @@
+package com.nplusnapps.todolist.benchmark;
+
+import com.nplusnapps.todolist.Task;
+import com.nplusnapps.todolist.TaskSchema;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The embedded SQLite database running the same schema and statements as the provider, so the add, move
+ * and delete paths can be measured on the JVM. Both take them from {@link TaskSchema}, only the plain
+ * writes the provider makes with its content values are spelled out here.
+ * The counters of the executed statements and of the commits are kept for the load tests.
+ * All the tasks go to the default list, the other lists only add their rows to the same index.
+ */
+public class TaskDatabase {
+
+    public static final long POSITION_GAP = TaskSchema.POSITION_GAP;
+    public static final int DEFAULT_LIST_ID = TaskSchema.DEFAULT_LIST_ID;
+
+    private final Connection mConnection;
+    private final PreparedStatement mTailStatement, mInsertStatement, mRowIdStatement, mPositionStatement,
+            mAboveStatement, mBelowStatement, mMoveStatement, mEditStatement, mDeleteStatement,
+            mPageStatement, mPageBeforeStatement, mListByIdStatement, mRebalanceSelectStatement, mPurgeStatement;
+    private long mStatementCount, mCommitCount;
+
+    /**
+     * Opens a new database in memory.
+     *
+     * @throws SQLException If the database can't be opened
+     */
+    public TaskDatabase() throws SQLException {
+        this("jdbc:sqlite::memory:");
+    }
+
+    /**
+     * Opens the database at the provided URL, e.g. a file to measure the disk writes as well.
+     *
+     * @param url The JDBC URL
+     * @throws SQLException If the database can't be opened
+     */
+    public TaskDatabase(String url) throws SQLException {
+        mConnection = DriverManager.getConnection(url);
+
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = WAL");
+            // Every commit syncs the log, as on the device, so the commit count is the sync count.
+            statement.execute("PRAGMA synchronous = FULL");
+
+            // The schema is built once, as the provider does on the device, the file databases are reopened.
+            ResultSet resultSet = statement.executeQuery("PRAGMA user_version");
+            int version = resultSet.next() ? resultSet.getInt(1) : 0;
+            resultSet.close();
+
+            if (version == 0) {
+                for (String sql : TaskSchema.CREATE_SCHEMA) {
+                    statement.execute(sql);
+                }
+                statement.execute("PRAGMA user_version = " + TaskSchema.SCHEMA_VERSION);
+            } else if (version != TaskSchema.SCHEMA_VERSION) {
+                throw new SQLException("Unable to open the database of the version " + version);
+            }
+        } finally {
+            statement.close();
+        }
+
+        mConnection.setAutoCommit(false);
+
+        mTailStatement = mConnection.prepareStatement(TaskSchema.SELECT_TAIL);
+        mTailStatement.setInt(1, DEFAULT_LIST_ID);
+        mInsertStatement = mConnection.prepareStatement("INSERT INTO " + TaskSchema.TABLE_TASKS + " (" +
+                TaskSchema.COLUMN_LIST_ID + ", " + TaskSchema.COLUMN_POSITION + ", " + TaskSchema.COLUMN_TASK +
+                ") VALUES (" + DEFAULT_LIST_ID + ", ?, ?)");
+        mRowIdStatement = mConnection.prepareStatement("SELECT last_insert_rowid()");
+        mPositionStatement = mConnection.prepareStatement(TaskSchema.SELECT_POSITION);
+        mAboveStatement = mConnection.prepareStatement(TaskSchema.SELECT_NEIGHBOUR_ABOVE);
+        mAboveStatement.setInt(1, DEFAULT_LIST_ID);
+        mBelowStatement = mConnection.prepareStatement(TaskSchema.SELECT_NEIGHBOUR_BELOW);
+        mBelowStatement.setInt(1, DEFAULT_LIST_ID);
+        mMoveStatement = mConnection.prepareStatement(TaskSchema.UPDATE_POSITION);
+        mEditStatement = mConnection.prepareStatement("UPDATE " + TaskSchema.TABLE_TASKS + " SET " +
+                TaskSchema.COLUMN_TASK + " = ? WHERE " + TaskSchema.COLUMN_ID + " = ?");
+        mDeleteStatement = mConnection.prepareStatement("UPDATE " + TaskSchema.TABLE_TASKS + " SET " +
+                TaskSchema.COLUMN_DELETED + " = ? WHERE " + TaskSchema.COLUMN_ID + " = ?");
+        mPageStatement = mConnection.prepareStatement(TaskSchema.SELECT_PAGE);
+        mPageStatement.setInt(1, DEFAULT_LIST_ID);
+        mPageBeforeStatement = mConnection.prepareStatement(TaskSchema.SELECT_PAGE_BEFORE);
+        mPageBeforeStatement.setInt(1, DEFAULT_LIST_ID);
+        mListByIdStatement = mConnection.prepareStatement("SELECT " + TaskSchema.COLUMN_ID + ", " +
+                TaskSchema.COLUMN_POSITION + ", " + TaskSchema.COLUMN_TASK + " FROM " + TaskSchema.TABLE_TASKS +
+                " WHERE " + TaskSchema.WHERE_ORDERED + " ORDER BY " + TaskSchema.COLUMN_ID);
+        mListByIdStatement.setInt(1, DEFAULT_LIST_ID);
+        mPurgeStatement = mConnection.prepareStatement("DELETE FROM " + TaskSchema.TABLE_TASKS + " WHERE " +
+                TaskSchema.WHERE_TOMBSTONES + " AND " + TaskSchema.COLUMN_DELETED + " < ?");
+        mRebalanceSelectStatement = mConnection.prepareStatement(TaskSchema.SELECT_REBALANCE);
+        mRebalanceSelectStatement.setInt(1, DEFAULT_LIST_ID);
+    }
+
+    /**
+     * Inserts the tasks in a single transaction, the IDs go from 1 up in the list order from the bottom.
+     *
+     * @param count The task count
+     * @throws SQLException If the tasks can't be inserted
+     */
+    public void seed(int count) throws SQLException {
+        // The batch runs on its own statement, as the driver doesn't reset the bindings after a batch.
+        PreparedStatement statement = mConnection.prepareStatement("INSERT INTO " + TaskSchema.TABLE_TASKS +
+                " (" + TaskSchema.COLUMN_POSITION + ", " + TaskSchema.COLUMN_TASK + ") VALUES (?, ?)");
+        try {
+            for (int i = 1; i <= count; i++) {
+                statement.setLong(1, i * POSITION_GAP);
+                statement.setString(2, "Task " + i);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+        commit();
+
+        mStatementCount += count;
+    }
+
+    /**
+     * Gives the tasks the keys in a random order, as a long history of moves leaves them.
+     * The IDs no longer follow the list order then.
+     *
+     * @param seed The seed of the random order
+     * @throws SQLException If the keys can't be changed
+     */
+    public void shuffle(long seed) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+
+        ResultSet resultSet = mRebalanceSelectStatement.executeQuery();
+        mStatementCount++;
+        try {
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt(1));
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        Collections.shuffle(ids, new Random(seed));
+
+        PreparedStatement statement = mConnection.prepareStatement(TaskSchema.UPDATE_POSITION);
+        try {
+            long position = 0;
+            for (int id : ids) {
+                position += POSITION_GAP;
+
+                statement.setLong(1, position);
+                statement.setInt(2, id);
+                statement.addBatch();
+            }
+
+            mStatementCount += statement.executeBatch().length;
+        } finally {
+            statement.close();
+        }
+        commit();
+    }
+
+    /**
+     * Adds the task on top of the list, as the service does.
+     *
+     * @param text The task text
+     * @return The task ID
+     * @throws SQLException If the task can't be added
+     */
+    public int addTask(String text) throws SQLException {
+        try {
+            Long tailPosition = queryPosition(mTailStatement);
+
+            mInsertStatement.setLong(1, tailPosition != null ? tailPosition + POSITION_GAP : POSITION_GAP);
+            mInsertStatement.setString(2, text);
+            mInsertStatement.executeUpdate();
+            mStatementCount++;
+
+            int id = queryPosition(mRowIdStatement).intValue();
+
+            commit();
+
+            return id;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the task right above or below the target task, rebalancing the keys if the gap has run out.
+     *
+     * @param selectedId The selected task ID
+     * @param targetId The target task ID
+     * @param up True to move the task above the target
+     * @return True if the task has been moved
+     * @throws SQLException If the task can't be moved
+     */
+    public boolean moveTask(int selectedId, int targetId, boolean up) throws SQLException {
+        try {
+            boolean moved = move(selectedId, targetId, up);
+
+            commit();
+
+            return moved;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the tasks in a single transaction, as the service applies a drained batch of moves.
+     * The arrays hold the arguments of {@link #moveTask(int, int, boolean)} for every move.
+     *
+     * @param selectedIds The selected task IDs
+     * @param targetIds The target task IDs
+     * @param up True to move the task above its target
+     * @return The number of the tasks moved
+     * @throws SQLException If the tasks can't be moved
+     */
+    public int moveTasks(int[] selectedIds, int[] targetIds, boolean[] up) throws SQLException {
+        try {
+            int count = 0;
+            for (int i = 0; i < selectedIds.length; i++) {
+                if (move(selectedIds[i], targetIds[i], up[i])) {
+                    count++;
+                }
+            }
+
+            commit();
+
+            return count;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the text of the task.
+     *
+     * @param id The task ID
+     * @param text The new text
+     * @throws SQLException If the task can't be edited
+     */
+    public void editTask(int id, String text) throws SQLException {
+        mEditStatement.setString(1, text);
+        mEditStatement.setInt(2, id);
+        mEditStatement.executeUpdate();
+        mStatementCount++;
+
+        commit();
+    }
+
+    /**
+     * Deletes the task, i.e. turns it into a tombstone.
+     *
+     * @param id The task ID
+     * @throws SQLException If the task can't be deleted
+     */
+    public void deleteTask(int id) throws SQLException {
+        mDeleteStatement.setLong(1, System.currentTimeMillis());
+        mDeleteStatement.setInt(2, id);
+        mDeleteStatement.executeUpdate();
+        mStatementCount++;
+
+        commit();
+    }
+
+    /**
+     * Deletes the tasks in a single transaction, as the service applies a burst of swipes.
+     * The tasks are turned into tombstones, see {@link #purgeTasks(long)}.
+     *
+     * @param ids The task IDs
+     * @throws SQLException If the tasks can't be deleted
+     */
+    public void deleteTasks(int[] ids) throws SQLException {
+        try {
+            long deletionTime = System.currentTimeMillis();
+            for (int id : ids) {
+                mDeleteStatement.setLong(1, deletionTime);
+                mDeleteStatement.setInt(2, id);
+                mDeleteStatement.executeUpdate();
+                mStatementCount++;
+            }
+
+            commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Purges the tombstones deleted before the provided time, as the service's sweep does.
+     *
+     * @param deletedBefore The deletion time in milliseconds
+     * @return The number of the tasks purged
+     * @throws SQLException If the tasks can't be purged
+     */
+    public int purgeTasks(long deletedBefore) throws SQLException {
+        mPurgeStatement.setLong(1, deletedBefore);
+        int count = mPurgeStatement.executeUpdate();
+        mStatementCount++;
+
+        commit();
+
+        return count;
+    }
+
+    /**
+     * Reads the page of the ordered list by its offset.
+     *
+     * @param offset The offset of the first task
+     * @param limit The maximum task count
+     * @return The key of the last task read, or 0 if there's none
+     * @throws SQLException If the page can't be read
+     */
+    public long readPage(int offset, int limit) throws SQLException {
+        mPageStatement.setInt(2, offset);
+        mPageStatement.setInt(3, limit);
+
+        return readPage(mPageStatement);
+    }
+
+    /**
+     * Reads the page of the ordered list following the task with the provided key.
+     *
+     * @param lastPosition The key of the last task of the previous page
+     * @param limit The maximum task count
+     * @return The key of the last task read, or 0 if there's none
+     * @throws SQLException If the page can't be read
+     */
+    public long readPageBefore(long lastPosition, int limit) throws SQLException {
+        mPageBeforeStatement.setLong(2, lastPosition);
+        mPageBeforeStatement.setInt(3, limit);
+
+        return readPage(mPageBeforeStatement);
+    }
+
+    /**
+     * Reads the whole list in the list order, as the provider serves the ordered URI.
+     *
+     * @return The tasks
+     * @throws SQLException If the list can't be read
+     */
+    public List<Task> readList() throws SQLException {
+        // The negative limit reads all the rows.
+        mPageStatement.setInt(2, 0);
+        mPageStatement.setInt(3, -1);
+
+        return readTasks(mPageStatement);
+    }
+
+    /**
+     * Reads the whole list in the ID order, as the rows were read before they were kept in the list order.
+     *
+     * @return The tasks
+     * @throws SQLException If the list can't be read
+     */
+    public List<Task> readListById() throws SQLException {
+        return readTasks(mListByIdStatement);
+    }
+
+    /**
+     * Gets the plan of the query, the details of the <code>EXPLAIN QUERY PLAN</code> rows joined together.
+     * The arguments of the query are left unbound.
+     *
+     * @param query The query
+     * @return The query plan
+     * @throws SQLException If the query can't be explained
+     */
+    public String explainQueryPlan(String query) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+
+        // The plain statement runs with the arguments unbound, the prepared one refuses to.
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + query);
+            try {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString("detail")).append("; ");
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            statement.close();
+        }
+
+        return plan.toString();
+    }
+
+    /**
+     * Gets the number of the statements executed since the database has been opened.
+     *
+     * @return The statement count
+     */
+    public long getStatementCount() {
+        return mStatementCount;
+    }
+
+    /**
+     * Gets the number of the transactions committed since the database has been opened.
+     *
+     * @return The commit count
+     */
+    public long getCommitCount() {
+        return mCommitCount;
+    }
+
+    /**
+     * Closes the database.
+     *
+     * @throws SQLException If the database can't be closed
+     */
+    public void close() throws SQLException {
+        mConnection.close();
+    }
+
+    private boolean move(int selectedId, int targetId, boolean up) throws SQLException {
+        mPositionStatement.setInt(1, targetId);
+
+        // A deleted target has nothing to move next to.
+        Long targetPosition = queryPosition(mPositionStatement);
+        if (targetPosition == null) {
+            return false;
+        }
+
+        Long position = findMovePosition(selectedId, targetPosition, up);
+        if (position == null) {
+            rebalancePositions();
+
+            targetPosition = queryPosition(mPositionStatement);
+            position = findMovePosition(selectedId, targetPosition, up);
+        }
+
+        mMoveStatement.setLong(1, position);
+        mMoveStatement.setInt(2, selectedId);
+        mStatementCount++;
+
+        return mMoveStatement.executeUpdate() > 0;
+    }
+
+    private void commit() throws SQLException {
+        mConnection.commit();
+        mCommitCount++;
+    }
+
+    private Long findMovePosition(int selectedId, long targetPosition, boolean up) throws SQLException {
+        PreparedStatement neighbourStatement = up ? mAboveStatement : mBelowStatement;
+        neighbourStatement.setLong(2, targetPosition);
+        neighbourStatement.setInt(3, selectedId);
+
+        return TaskSchema.getMovePosition(targetPosition, queryPosition(neighbourStatement), up);
+    }
+
+    private void rebalancePositions() throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(TaskSchema.UPDATE_POSITION);
+        ResultSet resultSet = mRebalanceSelectStatement.executeQuery();
+        mStatementCount++;
+        try {
+            long position = 0;
+            while (resultSet.next()) {
+                position += POSITION_GAP;
+
+                statement.setLong(1, position);
+                statement.setInt(2, resultSet.getInt(1));
+                statement.addBatch();
+            }
+            resultSet.close();
+
+            mStatementCount += statement.executeBatch().length;
+        } finally {
+            resultSet.close();
+            statement.close();
+        }
+    }
+
+    private List<Task> readTasks(PreparedStatement statement) throws SQLException {
+        List<Task> tasks = new ArrayList<>();
+
+        ResultSet resultSet = statement.executeQuery();
+        mStatementCount++;
+        try {
+            while (resultSet.next()) {
+                tasks.add(new Task(resultSet.getInt(1), resultSet.getLong(2), resultSet.getString(3)));
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        return tasks;
+    }
+
+    private long readPage(PreparedStatement statement) throws SQLException {
+        long lastPosition = 0;
+
+        ResultSet resultSet = statement.executeQuery();
+        mStatementCount++;
+        try {
+            while (resultSet.next()) {
+                resultSet.getInt(1);
+                lastPosition = resultSet.getLong(2);
+                resultSet.getString(3);
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        return lastPosition;
+    }
+
+    private Long queryPosition(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        mStatementCount++;
+        try {
+            if (resultSet.next()) {
+                long position = resultSet.getLong(1);
+                return resultSet.wasNull() ? null : position;
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.nplusnapps.todolist.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Writes the task list in the export format, one JSON object per line, to be imported on the device.
+ * The frame times of the scroll through a long list with long texts are then read from the app's metrics,
+ * e.g. adb shell content query --uri content://com.nplusnapps.todolist.dataprovider/metrics.
+ * The arguments are the output file, the task count and the text length in characters.
+ */
+public class TaskFileGenerator {
+
+    private static final String[] WORDS = {"buy", "call", "check", "email", "fix", "pick up", "read", "send",
+            "the", "milk", "report", "tickets", "car", "invoice", "plants", "before", "after", "tomorrow",
+            "Monday", "again", "with", "for", "and", "groceries", "dentist", "meeting", "notes", "keys"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TaskFileGenerator <file> [count] [length]");
+            System.exit(1);
+        }
+
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int length = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        Random random = new Random(42);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[0]), "UTF-8"));
+        try {
+            for (int i = 0; i < count; i++) {
+                StringBuilder text = new StringBuilder(length + 16);
+                text.append(i + 1);
+                while (text.length() < length) {
+                    text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                text.setLength(length);
+
+                // The words need no escaping.
+                writer.write("{\"task\":\"" + text + "\"}\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}